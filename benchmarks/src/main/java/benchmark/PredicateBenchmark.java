@@ -0,0 +1,115 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import driver.Predicate;
+import driver.PredicateLoader;
+
+/**
+ * Measures reading predicate files and stripping their constants.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PredicateBenchmark {
+
+	// the number of predicate files in the directory that is loaded
+	private static final int FILES = 8;
+
+	@Param({"100", "1000", "5000"})
+	int predicateSize;
+
+	@Param({"8", "16", "32"})
+	int wordLength;
+
+	private File directory;
+	private File file;
+	private PredicateLoader loader;
+	private PrintStream out;
+
+	/**
+	 * A predicate whose words are reread before each call, since they are
+	 * only stripped once.
+	 */
+	@State(Scope.Thread)
+	public static class Unstripped {
+
+		// the percent of lines a string must appear in to be considered a constant
+		@Param({"0.9"})
+		double constantValue;
+
+		private Predicate predicate;
+
+		@Setup(Level.Invocation)
+		public void reread(PredicateBenchmark benchmark) {
+			if (predicate == null)
+				predicate = new Predicate(benchmark.file.getPath());
+			else
+				predicate.populate();
+			predicate.setConstantValue(constantValue);
+		}
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		PredicateData data = new PredicateData(predicateSize * 31 + wordLength);
+		directory = PredicateData.createDirectory("predicates");
+		// every line is tagged with the same word, which stripConstants removes
+		for (int i = 0; i < FILES; i++)
+			PredicateData.write(new File(directory, "p"+i+".txt"), PredicateData.tag(data.lines(predicateSize, wordLength), "http.tag"));
+		file = new File(directory, "p0.txt");
+		loader = new PredicateLoader();
+		loader.setEcho(false);
+
+		// stripConstants prints every constant it removes
+		out = System.out;
+		System.setOut(new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		}));
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(out);
+	}
+
+	@Benchmark
+	public Predicate read() {
+		return new Predicate(file.getPath());
+	}
+
+	@Benchmark
+	public List<Predicate> loadDirectory() {
+		return loader.loadDirectory(directory.getPath() + File.separator);
+	}
+
+	@Benchmark
+	public Predicate stripConstants(Unstripped unstripped) {
+		unstripped.predicate.stripConstants();
+		return unstripped.predicate;
+	}
+
+}
@@ -0,0 +1,215 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates predicate files shaped like the ones in data/small: each line is
+ * a short name made of a few capitalised words ("Quentin Tarantino"), and
+ * some lines are repeated. Remote predicates change a few characters of the
+ * names, or write them another way as in data/text_similarity. The same seed
+ * always gives the same data, so benchmark runs can be compared with each
+ * other.
+ */
+public class PredicateData {
+
+	// the letters names are made of, vowels more often than the rest
+	private static final String LETTERS = "aaabcdeeeefghiiijklmnooopqrsstuuvwxyz";
+
+	private Random random;
+
+	/**
+	 * @param seed		The seed for the random number generator.
+	 */
+	public PredicateData(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * Creates a name of capitalised words separated by spaces.
+	 *
+	 * @param length	The number of characters in the name.
+	 * @return			The name.
+	 */
+	public String name(int length) {
+		StringBuilder name = new StringBuilder(length);
+		while (name.length() < length) {
+			if (name.length() > 0)
+				name.append(' ');
+			int wordLength = 3 + random.nextInt(7);
+			for (int i = 0; i < wordLength && name.length() < length; i++) {
+				char c = LETTERS.charAt(random.nextInt(LETTERS.length()));
+				name.append(i == 0 ? Character.toUpperCase(c) : c);
+			}
+		}
+		// a name never ends with the space between two words
+		if (name.charAt(length - 1) == ' ')
+			name.setCharAt(length - 1, 'x');
+		return name.toString();
+	}
+
+	/**
+	 * Creates the lines of a predicate file. A fraction of the distinct names
+	 * appear more than once, as the same value does in real predicates.
+	 *
+	 * @param size			The number of distinct names.
+	 * @param nameLength	The number of characters in each name.
+	 * @return				The lines, in no particular order.
+	 */
+	public List<String> lines(int size, int nameLength) {
+		List<String> lines = new ArrayList<String>(size * 2);
+		for (int i = 0; i < size; i++) {
+			String name = name(nameLength);
+			int count = random.nextInt(4) == 0 ? 2 + random.nextInt(5) : 1;
+			for (int j = 0; j < count; j++)
+				lines.add(name);
+		}
+		return lines;
+	}
+
+	/**
+	 * Creates the lines of a predicate that holds the same kind of values as
+	 * another one: some lines are copied, some have a few characters changed,
+	 * and the rest are new names.
+	 *
+	 * @param lines		The lines of the other predicate.
+	 * @param copied	The fraction of lines to copy unchanged.
+	 * @param changed	The fraction of lines to copy with a few characters changed.
+	 * @return			The new lines.
+	 */
+	public List<String> similarLines(List<String> lines, double copied, double changed) {
+		List<String> similar = new ArrayList<String>(lines.size());
+		for (String line : lines) {
+			double r = random.nextDouble();
+			if (r < copied)
+				similar.add(line);
+			else if (r < copied + changed)
+				similar.add(change(line));
+			else
+				similar.add(name(line.length()));
+		}
+		return similar;
+	}
+
+	/**
+	 * Writes a name another way, as the files in data/text_similarity write
+	 * "Samuel L Jackson": with the first word shortened ("Sam L Jackson"),
+	 * the middle words dropped ("Samuel Jackson"), or a middle initial added
+	 * or given a full stop ("Samuel L. Jackson").
+	 *
+	 * @param name		A name of capitalised words separated by spaces.
+	 * @return			The same name written another way.
+	 */
+	public String variant(String name) {
+		String[] words = name.split(" ");
+		List<String> variant = new ArrayList<String>(words.length + 1);
+		for (String word : words)
+			variant.add(word);
+		int kind = random.nextInt(3);
+		if (kind == 0 && variant.get(0).length() > 3) {
+			variant.set(0, variant.get(0).substring(0, 3));
+		} else if (kind == 1 && variant.size() > 2) {
+			String last = variant.get(variant.size() - 1);
+			variant.subList(1, variant.size()).clear();
+			variant.add(last);
+		} else if (variant.size() > 2) {
+			variant.set(1, variant.get(1).charAt(0) + ".");
+		} else {
+			variant.add(1, Character.toUpperCase(LETTERS.charAt(random.nextInt(LETTERS.length()))) + ".");
+		}
+		StringBuilder written = new StringBuilder(name.length() + 3);
+		for (String word : variant) {
+			if (written.length() > 0)
+				written.append(' ');
+			written.append(word);
+		}
+		return written.toString();
+	}
+
+	/**
+	 * Creates the lines of a predicate that writes the names of another one
+	 * differently, as in data/text_similarity (see variant).
+	 *
+	 * @param lines		The lines of the other predicate.
+	 * @param copied	The fraction of lines to copy unchanged.
+	 * @return			The new lines.
+	 */
+	public List<String> variantLines(List<String> lines, double copied) {
+		List<String> variants = new ArrayList<String>(lines.size());
+		for (String line : lines)
+			variants.add(random.nextDouble() < copied ? line : variant(line));
+		return variants;
+	}
+
+	/**
+	 * Adds the same word to the front of every line, such as the constant
+	 * tags stripConstants removes.
+	 *
+	 * @param lines		The lines to tag.
+	 * @param tag		The word to add.
+	 * @return			The tagged lines.
+	 */
+	public static List<String> tag(List<String> lines, String tag) {
+		List<String> tagged = new ArrayList<String>(lines.size());
+		for (String line : lines)
+			tagged.add(tag + " " + line);
+		return tagged;
+	}
+
+	/**
+	 * Writes lines to a file as UTF-8, one per line. The file is removed
+	 * when the JVM exits.
+	 *
+	 * @param file		The file to write.
+	 * @param lines		The lines to write.
+	 * @throws IOException	If the file can not be written.
+	 */
+	public static void write(File file, List<String> lines) throws IOException {
+		file.deleteOnExit();
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Creates an empty directory for generated predicates, which is removed
+	 * when the JVM exits.
+	 *
+	 * @param prefix	The start of the directory's name.
+	 * @return			The directory.
+	 * @throws IOException	If the directory can not be created.
+	 */
+	public static File createDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		if (!directory.delete() || !directory.mkdir())
+			throw new IOException("Failed to create directory "+directory);
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	// replaces one or two characters of a line, keeping its length and spaces
+	private String change(String line) {
+		char[] chars = line.toCharArray();
+		int changes = 1 + random.nextInt(2);
+		for (int i = 0; i < changes; i++) {
+			int position = random.nextInt(chars.length);
+			if (chars[position] != ' ')
+				chars[position] = LETTERS.charAt(random.nextInt(LETTERS.length()));
+		}
+		return new String(chars);
+	}
+
+}
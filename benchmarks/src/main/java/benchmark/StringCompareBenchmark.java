@@ -0,0 +1,110 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import text.Dice;
+import text.JW;
+import text.WordProfile;
+
+/**
+ * Measures a single string comparison, cycling through pairs of names. With
+ * changed pairs some names are equal, some differ by a character or two and
+ * some are unrelated. With variant pairs the second name writes the first
+ * another way, as the files in data/text_similarity do.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringCompareBenchmark {
+
+	// the number of pairs cycled through, a power of two
+	private static final int PAIRS = 1024;
+
+	@Param({"8", "16", "32"})
+	int wordLength;
+
+	// how the second name of each pair is made from the first
+	@Param({"changed", "variant"})
+	String pairs;
+
+	// the threshold passed to the bounded comparisons
+	@Param({"0.8"})
+	double minScore;
+
+	private Dice dice = new Dice();
+	private JW jw = new JW();
+	private String[] first = new String[PAIRS];
+	private String[] second = new String[PAIRS];
+	private WordProfile[] firstProfiles = new WordProfile[PAIRS];
+	private WordProfile[] secondProfiles = new WordProfile[PAIRS];
+	private int next = 0;
+
+	@Setup
+	public void setup() {
+		PredicateData data = new PredicateData(wordLength);
+		List<String> lines = data.lines(PAIRS, wordLength);
+		List<String> similar = pairs.equals("variant") ? data.variantLines(lines, 0.2) : data.similarLines(lines, 0.2, 0.5);
+		for (int i = 0; i < PAIRS; i++) {
+			// copies, so that equal words are not the same object
+			first[i] = new String(lines.get(i));
+			second[i] = new String(similar.get(i));
+			firstProfiles[i] = new WordProfile(first[i]);
+			secondProfiles[i] = new WordProfile(second[i]);
+			// work the bigrams out now rather than while measuring
+			firstProfiles[i].getBigrams();
+			secondProfiles[i].getBigrams();
+		}
+	}
+
+	private int next() {
+		next = (next + 1) & (PAIRS - 1);
+		return next;
+	}
+
+	@Benchmark
+	public double dice() {
+		int i = next();
+		return dice.compare(first[i], second[i]);
+	}
+
+	@Benchmark
+	public double diceProfiles() {
+		int i = next();
+		return dice.compare(firstProfiles[i], secondProfiles[i]);
+	}
+
+	@Benchmark
+	public double diceAtLeast() {
+		int i = next();
+		return dice.compareAtLeast(firstProfiles[i], secondProfiles[i], minScore);
+	}
+
+	@Benchmark
+	public double jw() {
+		int i = next();
+		return jw.compare(first[i], second[i]);
+	}
+
+	@Benchmark
+	public double jwAtLeast() {
+		int i = next();
+		return jw.compareAtLeast(first[i], second[i], minScore);
+	}
+
+}
@@ -0,0 +1,107 @@
+package kldivergence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import benchmark.PredicateData;
+import text.Dice;
+import text.JW;
+import driver.Predicate;
+
+/**
+ * Measures matching one local predicate against one remote predicate. This
+ * lives in the kldivergence package so it can time the word matching (the
+ * findSimilar loop) separately from the divergence over the matches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KLDivergenceBenchmark {
+
+	@Param({"dice", "jw"})
+	String metric;
+
+	@Param({"100", "1000", "5000"})
+	int predicateSize;
+
+	@Param({"8", "16", "32"})
+	int wordLength;
+
+	// the threshold the matches are checked against
+	@Param({"0.81"})
+	double threshold;
+
+	// the maximum number of words used from the local predicate
+	@Param({"500"})
+	int limit;
+
+	private KLDivergence kld;
+	private Predicate local;
+	private Predicate remote;
+	private BestMatches matches;
+
+	@Setup
+	public void setup() throws IOException {
+		kld = new KLDivergence("jw".equals(metric) ? new JW() : new Dice());
+		kld.setLimit(limit);
+		kld.setParallelism(1);
+
+		// a remote predicate holding the same kind of values as the local one
+		PredicateData data = new PredicateData(predicateSize * 31 + wordLength);
+		List<String> lines = data.lines(predicateSize, wordLength);
+		File directory = PredicateData.createDirectory("kld");
+		File localFile = new File(directory, "local");
+		File remoteFile = new File(directory, "remote");
+		PredicateData.write(localFile, lines);
+		PredicateData.write(remoteFile, data.similarLines(lines, 0.3, 0.4));
+		local = new Predicate(localFile.getPath());
+		remote = new Predicate(remoteFile.getPath());
+
+		// build the bigram index before measuring
+		matches = kld.findBestMatches(local, remote, threshold);
+	}
+
+	/**
+	 * Finds the most similar remote word for every local word within the limit.
+	 */
+	@Benchmark
+	public BestMatches findSimilar() {
+		return kld.findBestMatches(local, remote, threshold);
+	}
+
+	/**
+	 * Runs KL-Divergence over matches that were already found, as each
+	 * threshold pass of select does.
+	 */
+	@Benchmark
+	public double divergence() {
+		return kld.compare(matches, threshold);
+	}
+
+	/**
+	 * Compares the two predicates from scratch. Outside of select the current
+	 * threshold is 0.0, so every match is used.
+	 */
+	@Benchmark
+	public double compare() {
+		return kld.compare(local, remote);
+	}
+
+}
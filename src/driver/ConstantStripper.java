@@ -0,0 +1,227 @@
+package driver;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import metrics.Metrics;
+
+/**
+ * Removes constants, or "stop words", from the lines of a predicate: tokens
+ * tagged onto so many of its lines that they say nothing about any one line.
+ *
+ * Lines are split into tokens as by split("\\s+"), so a line starting with
+ * whitespace has an empty first token. Such a line counts as having more than
+ * one token even if it holds a single word, and its empty token can be a
+ * candidate. An empty constant is reported, but cuts nothing out of the lines.
+ *
+ * The tokens of the first line with more than one token are the candidates.
+ * Every other line with more than one token is split once, and each of its
+ * tokens is looked up in a hash table of the candidates without being copied
+ * out of the line. A candidate found in more than constantValue of those lines
+ * is a constant, and is cut out of every line where it appears as a whole token.
+ * A constant repeated on the first line is reported once for each time it
+ * appears there, as stripConstants did.
+ */
+final class ConstantStripper {
+
+	private ConstantStripper() {
+	}
+
+	/**
+	 * Strips the constants from a predicate's lines.
+	 *
+	 * @param words				The lines and the number of times each appears, in the predicate's order.
+	 * @param constantValue		The fraction of lines a token must appear in to be a constant.
+	 * @param echo				Whether to print each constant removed.
+	 * @return					The stripped lines in sorted order, or the same map if there were no constants.
+	 */
+	static Map<String, Integer> strip(Map<String, Integer> words, double constantValue, boolean echo) {
+		long startTime = System.nanoTime();
+		Tokens tokens = new Tokens();
+
+		// count the lines with more than one token that each candidate appears in
+		TokenTable candidates = null;
+		int lines = 0;
+		for (String line : words.keySet()) {
+			tokens.split(line);
+			if (tokens.size < 2)
+				continue;
+			lines++;
+			if (candidates == null)
+				candidates = new TokenTable(line, tokens);
+			else
+				candidates.count(line, tokens, lines);
+		}
+
+		// only remove constants that appear often enough
+		TokenTable constants = candidates == null ? null : candidates.select(lines * constantValue, echo);
+		if (constants == null) {
+			Metrics.getGlobal().time("stripConstants", System.nanoTime() - startTime);
+			return words;
+		}
+
+		// cut the constants out of every line, merging lines that become the same
+		Map<String, Integer> stripped = new TreeMap<String, Integer>();
+		StringBuilder builder = new StringBuilder();
+		for (Map.Entry<String, Integer> entry : words.entrySet()) {
+			String line = entry.getKey();
+			tokens.split(line);
+			builder.setLength(0);
+			int copied = 0;
+			for (int t = 0; t < tokens.size; t++) {
+				if (constants.find(line, tokens.starts[t], tokens.ends[t]) >= 0) {
+					builder.append(line, copied, tokens.starts[t]);
+					copied = tokens.ends[t];
+				}
+			}
+			String key = copied == 0 ? line : builder.append(line, copied, line.length()).toString();
+			Integer count = stripped.get(key);
+			stripped.put(key, count == null ? entry.getValue() : count + entry.getValue());
+		}
+		Metrics.getGlobal().time("stripConstants", System.nanoTime() - startTime);
+		return stripped;
+	}
+
+	// whether a character separates tokens (the same characters as the regular expression \s)
+	private static boolean isSpace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	/**
+	 * The start and end of each token in a line, reused from line to line.
+	 */
+	private static class Tokens {
+
+		int[] starts = new int[16];
+		int[] ends = new int[16];
+		int size;
+
+		// finds the runs of characters between whitespace, as line.split("\\s+") does
+		void split(String line) {
+			size = 0;
+			int length = line.length();
+			int i = 0;
+			while (i < length) {
+				while (i < length && isSpace(line.charAt(i)))
+					i++;
+				if (i == length)
+					break;
+				int start = i;
+				while (i < length && !isSpace(line.charAt(i)))
+					i++;
+				// split gives an empty first token to a line starting with whitespace (but not to a blank line)
+				if (size == 0 && start > 0)
+					add(0, 0);
+				add(start, i);
+			}
+		}
+
+		private void add(int start, int end) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			size++;
+		}
+
+	}
+
+	/**
+	 * An open addressing table of tokens, looked up by their position in a line.
+	 */
+	private static class TokenTable {
+
+		// the tokens, with null for an empty slot
+		private final String[] keys;
+		// the number of lines each token has appeared in
+		private final int[] lines;
+		// the last line each token was counted in, so that it is counted once per line
+		private final int[] lastLine;
+		// the slot of each token of the first line, in the line's order and with any repeats
+		private final int[] order;
+		private int size = 0;
+
+		// creates a table of the tokens of the first line, each counted once
+		TokenTable(String line, Tokens tokens) {
+			this(tokens.size);
+			for (int t = 0; t < tokens.size; t++)
+				order[size++] = add(line.substring(tokens.starts[t], tokens.ends[t]), 1);
+		}
+
+		private TokenTable(int capacity) {
+			int slots = Integer.highestOneBit(Math.max(capacity, 2) * 2 - 1) << 1;
+			keys = new String[slots];
+			lines = new int[slots];
+			lastLine = new int[slots];
+			order = new int[capacity];
+		}
+
+		// adds a token if it is not already in the table, giving its slot
+		private int add(String token, int line) {
+			int slot = hash(token, 0, token.length()) & (keys.length - 1);
+			while (keys[slot] != null) {
+				if (keys[slot].equals(token))
+					return slot;
+				slot = (slot + 1) & (keys.length - 1);
+			}
+			keys[slot] = token;
+			lines[slot] = 1;
+			lastLine[slot] = line;
+			return slot;
+		}
+
+		// counts the tokens of a line that are in the table
+		void count(String line, Tokens tokens, int lineNumber) {
+			for (int t = 0; t < tokens.size; t++) {
+				int slot = find(line, tokens.starts[t], tokens.ends[t]);
+				if (slot >= 0 && lastLine[slot] != lineNumber) {
+					lines[slot]++;
+					lastLine[slot] = lineNumber;
+				}
+			}
+		}
+
+		// the slot of the token between start and end in a line, or -1 if it is not in the table
+		int find(String line, int start, int end) {
+			int length = end - start;
+			int slot = hash(line, start, end) & (keys.length - 1);
+			while (keys[slot] != null) {
+				String key = keys[slot];
+				if (key.length() == length && line.regionMatches(start, key, 0, length))
+					return slot;
+				slot = (slot + 1) & (keys.length - 1);
+			}
+			return -1;
+		}
+
+		// the tokens that appear in more than the given number of lines (null if there are none),
+		// echoing them in the first line's order, a repeated token once for each time it appears
+		TokenTable select(double minLines, boolean echo) {
+			TokenTable selected = null;
+			for (int i = 0; i < size; i++) {
+				int slot = order[i];
+				if (lines[slot] > minLines) {
+					if (selected == null)
+						selected = new TokenTable(size);
+					selected.add(keys[slot], 0);
+					if (echo)
+						System.out.println("Removing "+keys[slot]);
+				}
+			}
+			return selected;
+		}
+
+		// the String.hashCode of part of a string, with its high bits spread into the low bits
+		private static int hash(String str, int start, int end) {
+			int h = 0;
+			for (int i = start; i < end; i++)
+				h = 31 * h + str.charAt(i);
+			return h ^ (h >>> 16);
+		}
+
+	}
+
+}
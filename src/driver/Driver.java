@@ -1,15 +1,18 @@
 package driver;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
+import kldivergence.DivergenceStore;
 import kldivergence.KLDivergence;
+import kldivergence.ParameterSweep;
 import kldivergence.Results;
+import kldivergence.ResultsWriter;
+import kldivergence.SimilarityCache;
+import metrics.Metrics;
 import text.*;
 
 public class Driver {
@@ -19,6 +22,24 @@ public class Driver {
 	// the list of predicates that have been matched by algorithm
 	private static List<Predicate> remotePredicates = new ArrayList<Predicate>();
 	static List<Results> results;
+	// reads the predicate files in each directory
+	private static PredicateLoader loader = new PredicateLoader();
+	// the percent of lines a string must appear in to be considered a constant
+	private static double constantValue = 1.0;
+	// whether to keep binary snapshots of predicate directories for faster starts
+	private static boolean useSnapshots = false;
+	// holds the words of predicates read when needed, within a memory budget (null = every predicate is read up front)
+	private static WordListCache wordCache = null;
+	// where a JSON summary of the counts and timings of the run is written (null = not written)
+	private static String metricsFile = null;
+	// where similar words are kept between runs (null = not kept)
+	private static String similarityCacheFile = null;
+	// where the divergences of pairs of predicates are kept between runs, so only changed pairs are scored (null = not kept)
+	private static String divergenceStoreFile = null;
+	// whether to run the test configurations listed in main in one pass, instead of the configuration set up there
+	private static boolean sweepTests = false;
+	// the IRI that predicate names are appended to in the N-Triples written by saveResults
+	private static String namespace = "urn:predicate:";
 	
 	public static void main(String [] args) {
 	
@@ -35,6 +56,25 @@ public class Driver {
 		
 		kld.setThresholdStep(0.02);
 		kld.setValidRequired(0);
+		// compare each distinct pair of words once, which pays off when the predicates share many lines
+		// (the table holds every remote word, so not when the words are kept within a cache's budget)
+//		kld.setSharedVocabulary(wordCache == null);
+		// reuse the similar words found by earlier runs over the same predicates
+		// (creates and locks a 64 MB file in the current directory)
+//		similarityCacheFile = "similarity.cache";
+		SimilarityCache cache = openSimilarityCache(similarityCacheFile);
+		kld.setSimilarityCache(cache);
+		// only score the pairs of predicates that changed since the last run
+		// (writes divergence.store in the current directory, and turns off pruning, since every divergence is kept)
+//		divergenceStoreFile = "divergence.store";
+		DivergenceStore store = openDivergenceStore(divergenceStoreFile);
+		kld.setDivergenceStore(store);
+		// write a JSON summary of the counts and timings of the run
+		// (writes metrics.json in the current directory)
+//		metricsFile = "metrics.json";
+		// start faster from binary snapshots of the predicate directories, used while their files are unchanged
+		// (writes a <directory>.snapshot file next to each data directory)
+//		useSnapshots = true;
 		
 		// test 4: limit 500, DICE compare, starting .85, step .02, required 5
 		// test A: limit 1000, JW compare, starting .97, step 0.01, required 5
@@ -47,30 +87,63 @@ public class Driver {
 //		testSpeciesSubset();
 		testMoviesSubsetLocal();
 		
-		stripConstants(1.0);
+		stripConstants(constantValue);
 		
 //		kld.setEcho(true);	// prints additional information
+//		kld.setPruning(true);	// only finds the best match, leaving losing predicates out of the results
+//		kld.setPrefilter(0.2);	// skips remote predicates with little text in common with the local predicate
+//		kld.setSampling(Sampling.RESERVOIR);	// compares words from the whole predicate rather than its first words
+//		kld.setAdaptive(true);	// grows the sample of words only until the best match settles
+//		kld.setResultsCapacity(10);	// keeps only the ten best remote predicates of each local predicate
+//		kld.setDeadline(60000);	// gives up on a local predicate after a minute, keeping the best match so far
+//		kld.setRunDeadline(3600000);	// gives up on the whole run after an hour
 		
-		// execute the algorithm, matching predicates as well as possible
-		kld.select(localPredicates, remotePredicates);
-		results = kld.getResults();
-		System.out.println();
-		
-		normalizeResults(results);
+		if (sweepTests) {
+			sweepTests(cache);
+		} else {
+			// execute the algorithm, matching predicates as well as possible
+			kld.select(localPredicates, remotePredicates);
+			results = kld.getResults();
+			System.out.println();
+			
+			normalizeResults(results);
+			
+			printResults(results);
+//			saveResults(results, "results/");
+		}
 		
-		printResults(results);
-//		saveResults(results, "results/");
+		if (cache != null)
+			closeSimilarityCache(cache);
+		if (store != null)
+			saveDivergenceStore(store);
+		if (wordCache != null)
+			System.out.println("Word list cache: "+wordCache);
+		if (metricsFile != null)
+			saveMetrics(metricsFile);
 		
 	}
 	
+	// strips the predicates that were not already stripped as they were loaded
 	private static void stripConstants(double constantValue) {
-		for (Predicate predicate : localPredicates) {
-			predicate.setConstantValue(constantValue);
-			predicate.stripConstants();
-		}
-		for (Predicate predicate : remotePredicates) {
-			predicate.setConstantValue(constantValue);
-			predicate.stripConstants();
+		loader.stripConstants(localPredicates, constantValue);
+		loader.stripConstants(remotePredicates, constantValue);
+	}
+	
+	// runs test 4 and tests A to D together, finding the similar words once for each metric
+	private static void sweepTests(SimilarityCache cache) {
+		ParameterSweep sweep = new ParameterSweep();
+		// as in main, a shared vocabulary only pays off when the predicates share many lines
+//		sweep.setSharedVocabulary(wordCache == null);
+		sweep.setSimilarityCache(cache);
+		sweep.add(new ParameterSweep.Configuration(new Dice(), 500, 0.85, 0.02, 5));
+		sweep.add(new ParameterSweep.Configuration(new JW(), 1000, 0.97, 0.01, 5));
+		sweep.add(new ParameterSweep.Configuration(new JW(), 1000, 0.97, 0.01, 7));
+		sweep.add(new ParameterSweep.Configuration(new JW(), 2000, 0.99, 0.005, 2));
+		sweep.add(new ParameterSweep.Configuration(new JW(), 2000, 0.99, 0.005, 3));
+		for (Map.Entry<ParameterSweep.Configuration, List<Results>> entry : sweep.run(localPredicates, remotePredicates).entrySet()) {
+			System.out.println("CONFIGURATION: "+entry.getKey());
+			normalizeResults(entry.getValue());
+			printResults(entry.getValue());
 		}
 	}
 	
@@ -82,35 +155,97 @@ public class Driver {
 	
 	private static void printResults(List<Results> results) {
 		for (Results result : results) {
+			if (result.isPartial())
+				System.out.println("PARTIAL: "+result.getName()+" (confidence "+result.getConfidence()+")");
 			System.out.println(result);
 		}
 	}
 	
+	// writes every result to one tab separated file, and each best match to an N-Triples file
 	private static void saveResults(List<Results> results, String directory) {
-		FileWriter fw;
-		BufferedWriter bw;
-		for (Results result : results) {
-			String fileName = directory + result.getName();
-			System.out.println("Writing "+fileName);
-			File file = new File(fileName);
+		new File(directory).mkdirs();
+		File tsvFile = new File(directory, "results.tsv");
+		File nTriplesFile = new File(directory, "mappings.nt");
+		System.out.println("Writing "+tsvFile+" and "+nTriplesFile);
+		try {
+			ResultsWriter tsv = ResultsWriter.tsv(tsvFile);
 			try {
-				fw = new FileWriter(file.getAbsoluteFile());
-				bw = new BufferedWriter(fw);
-				bw.write(result.toString());
-				bw.close();
-			} catch (IOException e) {
-				e.printStackTrace();
+				ResultsWriter nTriples = ResultsWriter.nTriples(nTriplesFile, namespace);
+				try {
+					for (Results result : results) {
+						tsv.write(result);
+						nTriples.write(result);
+					}
+				} finally {
+					nTriples.close();
+				}
+			} finally {
+				tsv.close();
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static SimilarityCache openSimilarityCache(String fileName) {
+		if (fileName == null)
+			return null;
+		try {
+			return new SimilarityCache(new File(fileName));
+		} catch (IOException e) {
+			System.out.println("Failed to open similarity cache "+fileName+": "+e.getMessage());
+			return null;
+		}
+	}
+	
+	private static void closeSimilarityCache(SimilarityCache cache) {
+		System.out.println(String.format("Similarity cache hit rate: %.1f%%", cache.getHitRate() * 100));
+		try {
+			cache.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static DivergenceStore openDivergenceStore(String fileName) {
+		if (fileName == null)
+			return null;
+		try {
+			return new DivergenceStore(new File(fileName));
+		} catch (IOException e) {
+			System.out.println("Failed to read divergence store "+fileName+": "+e.getMessage());
+			return null;
+		}
+	}
+	
+	private static void saveDivergenceStore(DivergenceStore store) {
+		Metrics metrics = Metrics.getGlobal();
+		System.out.println("Divergence store: "+metrics.getCount("pairsReused")+" pairs reused, "
+				+metrics.getCount("pairsScored")+" pairs scored");
+		try {
+			store.save();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private static void saveMetrics(String fileName) {
+		System.out.println("Writing "+fileName);
+		try {
+			Metrics.getGlobal().save(new File(fileName));
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 	
 	private void printExactMatches(Map<Predicate, Predicate> matches) {
-		// loop through list of predicates that were searched for in DB2
-		for (Predicate predicate : localPredicates) {
+		// loop through the results of the predicates that were searched for in DB2
+		for (Results result : results) {
 			// retrieves the match returned by the algorithm
+			Predicate predicate = result.getLocalPredicate();
 			Predicate match = matches.get(predicate);
 			// print confidence and matched predicates
-			System.out.print(match.getConfidence()+": ");
+			System.out.print(result.getConfidence()+": ");
 			System.out.println(predicate.getShortName() + " ~ "+ match.getShortName());
 		}
 	}
@@ -193,18 +328,14 @@ public class Driver {
 	 * @return			The list of predicates generated.
 	 */
 	private static List<Predicate> getPredicatesFromDirectory(String directory) {
-		List<Predicate> list = new ArrayList<Predicate>();
-		File folder = new File(directory);
-		if (folder.isDirectory()) {
-		    for (File fileEntry : folder.listFiles()) {
-		        if (!fileEntry.isDirectory()) {
-		            list.add(new Predicate(directory+fileEntry.getName()));
-		        }
-		    }
-		} else {
-			throw new IllegalArgumentException(directory+" is not a directory.");
-		}
-	    return list;
+		// for directories too large to hold at once, read each predicate when needed instead
+		if (wordCache != null)
+			return loader.listDirectory(directory, wordCache);
+		// reuse the snapshot of the directory (already stripped) if the files have not changed
+		if (useSnapshots)
+			return PredicateSnapshot.loadDirectory(directory, constantValue, loader);
+		// files are read and stripped in parallel, printing the load throughput
+		return loader.loadDirectory(directory, constantValue);
 	}
 	
 }
@@ -0,0 +1,460 @@
+package driver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import kldivergence.KLDivergence;
+import kldivergence.Results;
+import metrics.Metrics;
+import text.Dice;
+import text.JW;
+import text.StringCompare;
+
+/**
+ * Answers match requests against remote predicate corpora that are loaded and
+ * indexed once, rather than once per run. Requests are read one per line, from
+ * standard input or from connections to a local port:
+ *
+ *   MATCH <file> [key=value ...]		matches the predicate in a file
+ *   VALUES <name> [key=value ...]		matches the values on the lines that follow, up to a line holding "."
+ *   STATS								prints the counts and timings recorded so far as JSON
+ *   QUIT								closes the connection
+ *
+ * A line of values starting with "." has another "." put in front of it. The
+ * settings are the same as those of KLDivergence: metric (dice or jw), limit,
+ * start, step, required, pruning, prefilter, parallelism, shared, deadline (in
+ * milliseconds), sampling (first, frequency, stratified or reservoir), seed,
+ * adaptive and top (the most remote predicates answered, 0 = all), along with
+ * corpus (the directory to match against, by default the first one loaded) and
+ * normalize.
+ *
+ * Requests on the same connection are numbered from 1 and may run at the same
+ * time, so their answers can come back in any order. Each answer starts with
+ * "OK <number>" or "ERR <number>", followed by the best match, its confidence
+ * (1.0, or less if the deadline ran out before every remote predicate was
+ * scored), the time from reading the request to answering it (including any
+ * time spent waiting for a thread), and "partial" if the deadline ran out,
+ * then the results, and ends with a line holding ".".
+ *
+ * The words of a request are added to the global WordDictionary while it is
+ * answered. The algorithms forget them afterwards, so they leave the dictionary
+ * once the garbage collector frees the request's predicate. The dictionary
+ * therefore holds the words of the corpora and of the requests being answered,
+ * rather than every value the server has seen.
+ */
+public class MatchServer {
+
+	// the settings used when a request does not give them (the same as Driver)
+	private static final Map<String, String> DEFAULTS = new LinkedHashMap<String, String>();
+	static {
+		DEFAULTS.put("metric", "dice");
+		DEFAULTS.put("limit", "500");
+		DEFAULTS.put("start", "0.81");
+		DEFAULTS.put("step", "0.02");
+		DEFAULTS.put("required", "0");
+		DEFAULTS.put("pruning", "false");
+		DEFAULTS.put("prefilter", "0");
+		DEFAULTS.put("parallelism", "1");
+		DEFAULTS.put("shared", "false");
+		DEFAULTS.put("deadline", "0");
+		DEFAULTS.put("sampling", "first");
+		DEFAULTS.put("seed", "0");
+		DEFAULTS.put("adaptive", "false");
+		DEFAULTS.put("top", "0");
+		DEFAULTS.put("normalize", "true");
+		DEFAULTS.put("corpus", "");
+	}
+	// the most events kept by the metrics, so they do not grow for as long as the server runs
+	private static final int MAX_EVENTS = 10000;
+
+	// the remote predicates of each directory, in the order they were loaded
+	private final Map<String, List<Predicate>> corpora = new LinkedHashMap<String, List<Predicate>>();
+	// the fraction of lines a value must appear in to be a constant (NaN = not stripped)
+	private final double constantValue;
+	// reads the predicate files of requests
+	private final PredicateLoader loader = new PredicateLoader(1);
+	// runs the requests
+	private final ExecutorService executor;
+	// the algorithm of each worker thread for each metric, kept so their signatures and tables stay warm
+	private final ThreadLocal<Map<String, KLDivergence>> algorithms = new ThreadLocal<Map<String, KLDivergence>>() {
+		@Override
+		protected Map<String, KLDivergence> initialValue() {
+			return new HashMap<String, KLDivergence>();
+		}
+	};
+	private final Metrics metrics = Metrics.getGlobal();
+
+	/**
+	 * @param threads			The number of requests that may run at the same time.
+	 * @param constantValue		The fraction of lines a value must appear in to be a constant (NaN = not stripped).
+	 */
+	public MatchServer(int threads, double constantValue) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Threads must be at least 1: "+threads);
+		this.constantValue = constantValue;
+		executor = Executors.newFixedThreadPool(threads);
+		metrics.setMaxEvents(MAX_EVENTS);
+	}
+
+	public static void main(String[] args) {
+		int port = -1;
+		int threads = Runtime.getRuntime().availableProcessors();
+		double constantValue = 1.0;
+		List<String> directories = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-port") && i + 1 < args.length)
+				port = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+				threads = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-constant") && i + 1 < args.length)
+				constantValue = Double.parseDouble(args[++i]);
+			else
+				directories.add(args[i]);
+		}
+		if (directories.isEmpty()) {
+			System.err.println("Usage: MatchServer [-port N] [-threads N] [-constant fraction] directory...");
+			System.exit(1);
+		}
+
+		MatchServer server = new MatchServer(threads, constantValue);
+		for (String directory : directories)
+			server.loadCorpus(directory);
+		try {
+			if (port < 0)
+				server.serve(System.in, System.out);
+			else
+				server.listen(port);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		server.shutdown();
+	}
+
+	/**
+	 * Loads the predicates of a directory and builds the index of each one,
+	 * so that no request has to wait for either.
+	 *
+	 * @param directory		The directory to load.
+	 * @return				The number of predicates loaded.
+	 */
+	public int loadCorpus(String directory) {
+		if (!directory.endsWith("/"))
+			directory += "/";
+		long startTime = System.nanoTime();
+		List<Predicate> predicates = PredicateSnapshot.loadDirectory(directory, constantValue, loader);
+		for (Predicate predicate : predicates)
+			predicate.getWordList().getBigramIndex();
+		synchronized (corpora) {
+			corpora.put(directory, predicates);
+		}
+		long duration = System.nanoTime() - startTime;
+		metrics.time("loadCorpus", duration);
+		System.err.println(String.format("Loaded %d predicates from %s in %.1f ms", predicates.size(), directory, duration / 1e6));
+		return predicates.size();
+	}
+
+	/**
+	 * Answers requests read from standard input (or any other stream) until
+	 * QUIT or the end of the input, once every request has been answered.
+	 *
+	 * @param in			Where requests are read from.
+	 * @param out			Where answers are written to.
+	 * @throws IOException	If the requests can not be read.
+	 */
+	public void serve(InputStream in, OutputStream out) throws IOException {
+		new Session(in, out).run();
+	}
+
+	/**
+	 * Accepts connections on a port of the local machine, each answered on
+	 * its own thread, until the process is stopped.
+	 *
+	 * @param port			The port to listen on.
+	 * @throws IOException	If the port can not be opened.
+	 */
+	public void listen(int port) throws IOException {
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		System.err.println("Listening on "+server.getLocalSocketAddress());
+		try {
+			while (true) {
+				final Socket socket = server.accept();
+				Thread thread = new Thread(new Runnable() {
+					public void run() {
+						try {
+							new Session(socket.getInputStream(), socket.getOutputStream()).run();
+						} catch (IOException e) {
+							System.err.println("Connection failed: "+e.getMessage());
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {
+								// already closed
+							}
+						}
+					}
+				}, "match-connection");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	/**
+	 * Stops accepting requests, letting those already running finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Matches a local predicate against a corpus.
+	 *
+	 * @param local			The predicate to match.
+	 * @param settings		The settings of the request, by name.
+	 * @return				The best match and the results of every remote predicate scored.
+	 */
+	Match match(Predicate local, Map<String, String> settings) {
+		List<Predicate> remotes = getCorpus(settings.get("corpus"));
+		KLDivergence kld = getAlgorithm(settings);
+		kld.getResults().clear();
+		Predicate best = kld.select(local, remotes);
+		Results results = kld.getResults().get(0);
+		kld.getResults().clear();
+		// the request's words are only held by its predicate and results, and so leave the dictionary with them
+		kld.clearSimilarWords();
+		if (Boolean.parseBoolean(settings.get("normalize")))
+			results.normalize();
+		return new Match(best, results);
+	}
+
+	/**
+	 * The answer to a match request.
+	 */
+	static class Match {
+
+		// the remote predicate chosen (named ".NULL" if there was none)
+		final Predicate best;
+		final Results results;
+
+		Match(Predicate best, Results results) {
+			this.best = best;
+			this.results = results;
+		}
+
+	}
+
+	// the remote predicates of a directory, or of the first directory loaded if none is given
+	private List<Predicate> getCorpus(String directory) {
+		synchronized (corpora) {
+			if (directory.isEmpty()) {
+				if (corpora.isEmpty())
+					throw new IllegalStateException("No corpus is loaded");
+				return corpora.values().iterator().next();
+			}
+			List<Predicate> remotes = corpora.get(directory.endsWith("/") ? directory : directory+"/");
+			if (remotes == null)
+				throw new IllegalArgumentException("Unknown corpus: "+directory);
+			return remotes;
+		}
+	}
+
+	// the calling thread's algorithm for the request's metric, set up with the request's settings
+	private KLDivergence getAlgorithm(Map<String, String> settings) {
+		String metric = settings.get("metric");
+		Map<String, KLDivergence> byMetric = algorithms.get();
+		KLDivergence kld = byMetric.get(metric);
+		if (kld == null) {
+			StringCompare compare;
+			if (metric.equals("dice"))
+				compare = new Dice();
+			else if (metric.equals("jw"))
+				compare = new JW();
+			else
+				throw new IllegalArgumentException("Unknown metric: "+metric);
+			kld = new KLDivergence(compare);
+			byMetric.put(metric, kld);
+		}
+		kld.setLimit(Integer.parseInt(settings.get("limit")));
+		kld.setStartingThreshold(Double.parseDouble(settings.get("start")));
+		kld.setThresholdStep(Double.parseDouble(settings.get("step")));
+		kld.setValidRequired(Integer.parseInt(settings.get("required")));
+		kld.setPruning(Boolean.parseBoolean(settings.get("pruning")));
+		kld.setPrefilter(Double.parseDouble(settings.get("prefilter")));
+		kld.setParallelism(Integer.parseInt(settings.get("parallelism")));
+		kld.setSharedVocabulary(Boolean.parseBoolean(settings.get("shared")));
+		kld.setDeadline(Long.parseLong(settings.get("deadline")));
+		kld.setSampling(Sampling.valueOf(settings.get("sampling").toUpperCase()));
+		kld.setSampleSeed(Long.parseLong(settings.get("seed")));
+		kld.setAdaptive(Boolean.parseBoolean(settings.get("adaptive")));
+		kld.setResultsCapacity(Integer.parseInt(settings.get("top")));
+		return kld;
+	}
+
+	// the settings of a request, from the default settings and the key=value words after its first two
+	private static Map<String, String> parseSettings(String[] words) {
+		Map<String, String> settings = new HashMap<String, String>(DEFAULTS);
+		for (int i = 2; i < words.length; i++) {
+			int equals = words[i].indexOf('=');
+			if (equals < 1 || !DEFAULTS.containsKey(words[i].substring(0, equals)))
+				throw new IllegalArgumentException("Unknown setting: "+words[i]);
+			settings.put(words[i].substring(0, equals), words[i].substring(equals + 1));
+		}
+		return settings;
+	}
+
+	/**
+	 * The requests of one connection (or of standard input), each answered on
+	 * the server's threads as soon as it has been read.
+	 */
+	private class Session {
+
+		private final BufferedReader reader;
+		private final Writer writer;
+		// the number of the last request read
+		private int requests = 0;
+		// the number of requests not yet answered
+		private int pending = 0;
+
+		Session(InputStream in, OutputStream out) {
+			reader = new BufferedReader(new InputStreamReader(in, PredicateLoader.UTF8));
+			writer = new BufferedWriter(new OutputStreamWriter(out, PredicateLoader.UTF8));
+		}
+
+		// reads requests until QUIT or the end of the input, then waits for the answers
+		void run() throws IOException {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				if (line.equals("QUIT"))
+					break;
+				final int number = ++requests;
+				final long startTime = System.nanoTime();
+				final String[] words = line.split("\\s+");
+				final String command = words[0].toUpperCase();
+				try {
+					if (command.equals("STATS")) {
+						answer("OK "+number, metrics.toJson());
+						continue;
+					}
+					if (!command.equals("MATCH") && !command.equals("VALUES"))
+						throw new IllegalArgumentException("Unknown request: "+words[0]);
+					if (words.length < 2)
+						throw new IllegalArgumentException(command+" needs a name");
+					final Map<String, String> settings = parseSettings(words);
+					// the values are read now, since they follow the request on the same input
+					final Map<String, Integer> values = command.equals("VALUES") ? readValues() : null;
+					submit(number, startTime, words[1], values, settings);
+				} catch (IllegalArgumentException e) {
+					answer("ERR "+number+" "+e.getMessage(), "");
+				}
+			}
+			synchronized (this) {
+				while (pending > 0) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+		}
+
+		// reads the lines of values up to a line holding ".", counting each distinct value
+		private Map<String, Integer> readValues() throws IOException {
+			Map<String, Integer> values = new TreeMap<String, Integer>();
+			String line;
+			while ((line = reader.readLine()) != null && !line.equals(".")) {
+				if (line.startsWith(".."))
+					line = line.substring(1);
+				Integer count = values.get(line);
+				values.put(line, count == null ? 1 : count + 1);
+			}
+			return values;
+		}
+
+		// matches a request on the server's threads, answering once it is done
+		private void submit(final int number, final long startTime, final String name, final Map<String, Integer> values, final Map<String, String> settings) {
+			synchronized (this) {
+				pending++;
+			}
+			executor.execute(new Runnable() {
+				public void run() {
+					String status;
+					String body;
+					try {
+						Predicate local;
+						if (values == null)
+							local = loader.load(name, constantValue);
+						else if (Double.isNaN(constantValue))
+							local = new Predicate(name, new WordList(values));
+						else
+							local = new Predicate(name, new WordList(ConstantStripper.strip(values, constantValue, false)));
+						if (local.size() == 0)
+							throw new IllegalArgumentException("No values in "+name);
+						Match match = match(local, settings);
+						long duration = System.nanoTime() - startTime;
+						metrics.time("request", duration);
+						metrics.event("request", name, duration).set("values", local.size());
+						status = String.format("OK %d best=%s confidence=%s ms=%.3f", number, match.best, match.results.getConfidence(), duration / 1e6);
+						if (match.results.isPartial())
+							status += " partial";
+						body = match.results.toString();
+					} catch (RuntimeException e) {
+						status = "ERR "+number+" "+e.getMessage();
+						body = "";
+					}
+					try {
+						answer(status, body);
+					} catch (IOException e) {
+						System.err.println("Failed to answer request "+number+": "+e.getMessage());
+					} finally {
+						synchronized (Session.this) {
+							pending--;
+							Session.this.notifyAll();
+						}
+					}
+				}
+			});
+		}
+
+		// writes an answer all at once, so answers on the same connection are not mixed up
+		private synchronized void answer(String status, String body) throws IOException {
+			writer.write(status);
+			writer.write('\n');
+			for (String line : body.split("\n")) {
+				if (line.isEmpty())
+					continue;
+				if (line.startsWith("."))
+					writer.write('.');
+				writer.write(line);
+				writer.write('\n');
+			}
+			writer.write(".\n");
+			writer.flush();
+		}
+
+	}
+
+}
@@ -1,17 +1,16 @@
 package driver;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import metrics.Metrics;
 
 public class Predicate {
         
@@ -21,14 +20,22 @@ public class Predicate {
     public String name;
     // the confidence value associated with matched predicates from an algorithm
     private double confidence = -1.0;
-    // a map relating a word (line of text) to the number of times that word appears
-    private Map<String, Integer> words = new HashMap<String, Integer>();
-    // an iterator used for looping through the words in the predicate
-    Iterator<Entry<String, Integer>> it;
+    // the words (lines of text) and the number of times each word appears, shared by all threads reading the predicate
+    private volatile WordList wordList = new WordList(new HashMap<String, Integer>());
+    // the position used for looping through the words in the predicate (not thread safe, see getWordList)
+    int it = 0;
     // an arrayList for getting entries in the predicate
     ArrayList<Map.Entry<String, Integer>> list = null;
     // the percent of lines a string must appear to be considered a constant
     double constantValue = 1.0;
+    // the constant value the words have already been stripped with (NaN if they have not),
+    // read by the threads loading the words of a predicate created with a cache
+    volatile double strippedWith = Double.NaN;
+    // holds the words of a predicate that is only read when needed (null if the words are always held)
+    private WordListCache cache = null;
+    // changed whenever the words are read again, stripped or freed (always after strippedWith,
+    // so a cache can tell that words loaded with the old value are out of date)
+    private final AtomicInteger version = new AtomicInteger();
     
     // Predicates with no file are blank
     public Predicate() {
@@ -41,8 +48,38 @@ public class Predicate {
         populate();
     }
     
+    // creates a predicate tied to a file whose words have already been read
+    Predicate(String filename, WordList words) {
+        this.filename = filename;
+        this.name = new File(filename).getName();
+        this.wordList = words;
+    }
+    
+    /**
+     * Creates a predicate tied to a file without reading it. The words are read
+     * the first time they are needed, and kept in the cache for as long as it
+     * has room for them.
+     *
+     * @param filename        The file to read.
+     * @param cache            The cache holding the words.
+     */
+    public Predicate(String filename, WordListCache cache) {
+        this.filename = filename;
+        this.name = new File(filename).getName();
+        this.cache = cache;
+        this.wordList = null;
+    }
+    
     // populates the predicate's word list by reading the filename
     public void populate() {
+        if (cache != null) {
+            // read the file again the next time the words are needed
+            strippedWith = Double.NaN;
+            version.incrementAndGet();
+            cache.remove(this);
+            it = 0;
+            return;
+        }
         try {
             read(filename);
         } catch (IOException e) {        System.out.println("Failed to read file: "+filename);        }
@@ -51,46 +88,87 @@ public class Predicate {
     // reads and parses the file, adding word counts to the internal list
     private void read(String filename) throws IOException {
         // store filename information
+        long startTime = System.nanoTime();
         File file = new File(filename);
         name = file.getName();
-        // create reader for file
-        BufferedReader in = new BufferedReader(new FileReader(file));
-        String str = null;
-
-        // loop through file line by line
-        while ((str = in.readLine()) != null) {
-        	// count the number of times the word has been seen
-        	if (words.containsKey(str))
-                words.put(str, words.get(str) + 1);
-        	else
-                words.put(str, 1);
+        // count the number of times each line appears
+        Map<String, Integer> words = PredicateLoader.readWords(file);
+        // store the words in sorted order, discarding the map
+        wordList = new WordList(new TreeMap<String, Integer>(words));
+        strippedWith = Double.NaN;
+        version.incrementAndGet();
+        it = 0;
+        Metrics.getGlobal().time("load", System.nanoTime() - startTime);
+    }
+    
+    // reads the words of a predicate that is only read when needed, stripped as they were before
+    WordList loadWords() {
+        long startTime = System.nanoTime();
+        Map<String, Integer> words;
+        try {
+            words = new TreeMap<String, Integer>(PredicateLoader.readWords(new File(filename)));
+        } catch (IOException e) {
+            System.out.println("Failed to read file: "+filename);
+            words = new HashMap<String, Integer>();
         }
-        // cleanup
-        in.close();
-        words = new TreeMap<String, Integer>(words);
-        it = words.entrySet().iterator();
+        Metrics.getGlobal().time("load", System.nanoTime() - startTime);
+        // strip the lines before they are added to the dictionary
+        double stripped = strippedWith;
+        if (!Double.isNaN(stripped))
+            words = ConstantStripper.strip(words, stripped, false);
+        return new WordList(words);
+    }
+    
+    /**
+     * Retrieves an immutable view of the words in the predicate. This can be
+     * used from several threads at once, unlike getStart and getNext. The
+     * words of a predicate created with a cache are read if they are not held.
+     *
+     * @return        The words and counts, in the same order as getStart and getNext.
+     */
+    public WordList getWordList() {
+        WordList words = wordList;
+        if (words == null)
+            words = cache.get(this);
+        return words;
+    }
+    
+    /**
+     * @return        A number that changes whenever the words are read again, stripped or freed.
+     */
+    public int getVersion() {
+        return version.get();
     }
     
     // retrieve the first word-count pair in the list
     public Map.Entry<String, Integer> getStart() {
-        it = words.entrySet().iterator();
+        it = 0;
         return getNext();
     }
     
     // retrieve the next word-count pair in the list
     public Map.Entry<String, Integer> getNext() {
-        if (it.hasNext())
-            return it.next();
-        else
+        WordList words = getWordList();
+        if (it < words.size()) {
+            it++;
+            return getEntry(words, it - 1);
+        } else
             return null;
     }
     
     public ArrayList<Map.Entry<String, Integer>> getEntries() {
-    	list = new ArrayList();
-    	list.addAll(words.entrySet());
+        WordList words = getWordList();
+    	list = new ArrayList<Map.Entry<String, Integer>>(words.size());
+    	for (int i = 0; i < words.size(); i++)
+    		list.add(getEntry(words, i));
     	return list;
     }
     
+    // create a word-count pair for a position in the word list
+    private static Map.Entry<String, Integer> getEntry(WordList words, int i) {
+        return new AbstractMap.SimpleImmutableEntry<String, Integer>(words.getWord(i), words.getCount(i));
+    }
+    
     // retrieve the terminator for the word-count pairs in the list
     public Map.Entry<String, Integer> getLast() {
         return null;
@@ -115,8 +193,10 @@ public class Predicate {
      * @return                The number of times the word appears.
      */
     public int getCount(String key) {
-        if (words.containsKey(key))
-            return words.get(key);
+        WordList words = getWordList();
+        int i = words.indexOf(key);
+        if (i >= 0)
+            return words.getCount(i);
         else
             return 0;
     }
@@ -128,14 +208,19 @@ public class Predicate {
      * @return                The probability within the range [0.0,1.0].
      */
     public double getProbability(String key) {
-        return ((double)getCount(key) / size());
+        WordList words = getWordList();
+        int i = words.indexOf(key);
+        if (i >= 0)
+            return words.getProbability(i);
+        else
+            return 0.0;
     }
     
     /**
      * @return        The number of distinct words in the predicate.
      */
     public int size() {
-        return words.size();
+        return getWordList().size();
     }
     
     // sets the confidence level for how well the match
@@ -150,82 +235,46 @@ public class Predicate {
     
     // clear the list of words to save space (may read from file again if necessary)
     public void free() {
-        words.clear();
+        if (cache != null) {
+            // the words are read again the next time they are needed
+            cache.remove(this);
+            it = 0;
+            return;
+        }
+        wordList = new WordList(new HashMap<String, Integer>());
+        strippedWith = Double.NaN;
+        version.incrementAndGet();
+        it = 0;
     }
     
     /**
      * Removes constants, or "stop words". This will  
      * remove text that has been tagged to every field.
+     * Nothing is done if the constants were already stripped with the
+     * same constant value (for example by a snapshot). The words of a
+     * predicate created with a cache are stripped as they are read.
      */
     public void stripConstants() {
     	
-    	// loop through all lines in the predicate file
-    	Iterator<Entry<String, Integer>> it = words.entrySet().iterator();
-    	Map.Entry<String, Integer> entry = null;
-    	List<String> toRemove = null;
-    	List<Integer> toRemoveCount = null;
-    	int count = 0;
-    	while (it.hasNext()) {
-    		entry = it.next();
-    		
-    		// tokenize the line by whitespace
-    		List<String> tokens = new ArrayList<String>(Arrays.asList(entry.getKey().split("\\s+")));
-    		
-    		// only look for constants in lines with more than 1 token
-    		if (tokens.size() > 1) {
-	    		if (toRemove == null) {
-	    			// if this is the first line, get a list of all the words
-	        		// and add to a list of words to remove
-					toRemove = new ArrayList<String>();
-					toRemoveCount = new ArrayList<Integer>();
-					for (String token : tokens) {
-		    			toRemove.add(token);
-		    			toRemoveCount.add(1);
-		    		}
-				} else {
-					// count the times a word reappears in all lines
-					for (int i = 0; i < toRemove.size(); i++) {
-						String removeItem = toRemove.get(i);
-						if (tokens.contains(removeItem)) {
-							toRemoveCount.set(i, toRemoveCount.get(i) + 1);
-						}
-					}
-				}
-	    		count++;
-    		}
-    	}
-    	
-    	// if all string contained 1 token, return
-    	if (toRemove == null)
+    	// only strip once for each constant value
+    	if (strippedWith == constantValue)
+    		return;
+    	strippedWith = constantValue;
+    	version.incrementAndGet();
+    	this.it = 0;
+    	if (cache != null) {
+    		cache.remove(this);
     		return;
-    	
-    	// only remove constants that appear often enough
-    	List<String> newRemove = new ArrayList<String>();
-    	for (int i = 0; i < toRemove.size(); i++) {
-    		if (toRemoveCount.get(i) > (count * constantValue)) {
-    			newRemove.add(toRemove.get(i));
-    			System.out.println("Removing "+toRemove.get(i));
-    		}
-    	}
-    	toRemove = newRemove;
-    	
-    	// loop through all the lines in the predicate, removing the constants
-    	// that are shared by all predicates
-    	Map<String, Integer> newWords = new HashMap<String, Integer>();
-    	it = words.entrySet().iterator();
-    	for (entry = it.next(); it.hasNext(); entry = it.next()) {
-    		String key = entry.getKey();
-    		Integer value = entry.getValue();
-    		// remove constants
-    		for (String removeItem : toRemove) {
-    			key = key.replace(removeItem, "");
-    		}
-    		newWords.put(key, value);
     	}
+    	wordList = strip(wordList, constantValue, true);
     	
-    	// set list to newly constructed list
-    	words = newWords;
-    	
+    }
+    
+    // removes the constants from a list of words, printing them if echo is set
+    private static WordList strip(WordList source, double constantValue, boolean echo) {
+    	Map<String, Integer> words = toMap(source);
+    	Map<String, Integer> stripped = ConstantStripper.strip(words, constantValue, echo);
+    	return stripped == words ? source : new WordList(stripped);
     }
     
     public void setConstantValue(double constantValue) {
@@ -233,12 +282,18 @@ public class Predicate {
     }
     
     public void printWords() {
-    	Iterator<Entry<String, Integer>> it = words.entrySet().iterator();
-    	Map.Entry<String, Integer> entry = null;
-    	while (it.hasNext()) {
-    		entry = it.next(); 
-    		System.out.println(entry.getKey()+"    "+entry.getValue());
+    	WordList words = getWordList();
+    	for (int i = 0; i < words.size(); i++) {
+    		System.out.println(words.getWord(i)+"    "+words.getCount(i));
     	}
     }
+    
+    // copy the words into a map, keeping their order
+    private static Map<String, Integer> toMap(WordList words) {
+    	Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+    	for (int i = 0; i < words.size(); i++)
+    		map.put(words.getWord(i), words.getCount(i));
+    	return map;
+    }
 
 }
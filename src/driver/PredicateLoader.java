@@ -0,0 +1,331 @@
+package driver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import metrics.Metrics;
+
+/**
+ * Reads predicate files with NIO, decoding them as UTF-8 and counting their
+ * lines in a single pass. Directories are read with several threads at once.
+ */
+public class PredicateLoader {
+
+	// the character set predicate files are written in
+	public static final Charset UTF8 = Charset.forName("UTF-8");
+	// files at least this large are memory mapped instead of read into the heap
+	private static final long MAP_THRESHOLD = 1 << 20;
+
+	// the number of files that may be read at the same time
+	private int threads;
+	// whether to print how fast each directory was read
+	private boolean echo = true;
+
+	// the totals for the last directory that was loaded
+	private int filesLoaded = 0;
+	private long bytesLoaded = 0;
+	private long nanosLoading = 0;
+
+	/**
+	 * Creates a loader reading one file per available processor at once.
+	 */
+	public PredicateLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param threads	The number of files that may be read at the same time.
+	 */
+	public PredicateLoader(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Threads must be at least 1: "+threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Creates predicates for every file in a directory, in the order the
+	 * files are listed.
+	 *
+	 * @param directory	The directory to read from.
+	 * @return			The list of predicates generated.
+	 */
+	public List<Predicate> loadDirectory(String directory) {
+		return loadDirectory(directory, Double.NaN);
+	}
+
+	/**
+	 * Creates predicates for every file in a directory, in the order the
+	 * files are listed, stripping the constants from each file as it is read.
+	 *
+	 * @param directory		The directory to read from.
+	 * @param constantValue	The constant value to strip the predicates with (NaN to not strip them).
+	 * @return				The list of predicates generated.
+	 */
+	public List<Predicate> loadDirectory(final String directory, final double constantValue) {
+		File folder = new File(directory);
+		if (!folder.isDirectory())
+			throw new IllegalArgumentException(directory+" is not a directory.");
+
+		long startTime = System.nanoTime();
+		final AtomicLong bytes = new AtomicLong();
+		List<Callable<Predicate>> tasks = new ArrayList<Callable<Predicate>>();
+		for (final File fileEntry : folder.listFiles()) {
+			if (!fileEntry.isDirectory()) {
+				tasks.add(new Callable<Predicate>() {
+					public Predicate call() {
+						bytes.addAndGet(fileEntry.length());
+						return load(directory+fileEntry.getName(), constantValue);
+					}
+				});
+			}
+		}
+
+		List<Predicate> list = invokeAll(tasks, "read "+directory);
+
+		filesLoaded = list.size();
+		bytesLoaded = bytes.get();
+		nanosLoading = System.nanoTime() - startTime;
+		Metrics metrics = Metrics.getGlobal();
+		metrics.time("loadDirectory", nanosLoading);
+		metrics.count("filesLoaded", filesLoaded);
+		metrics.count("bytesLoaded", bytesLoaded);
+		if (echo)
+			System.out.println("Loaded "+directory+": "+getThroughput());
+		return list;
+	}
+
+	/**
+	 * Creates predicates for every file in a directory without reading them.
+	 * Each predicate's words are read the first time they are needed, and are
+	 * kept in the cache for as long as it has room for them.
+	 *
+	 * @param directory	The directory to list.
+	 * @param cache		The cache holding the predicates' words.
+	 * @return			The list of predicates generated.
+	 */
+	public List<Predicate> listDirectory(String directory, WordListCache cache) {
+		File folder = new File(directory);
+		if (!folder.isDirectory())
+			throw new IllegalArgumentException(directory+" is not a directory.");
+		List<Predicate> list = new ArrayList<Predicate>();
+		for (File fileEntry : folder.listFiles()) {
+			if (!fileEntry.isDirectory())
+				list.add(new Predicate(directory+fileEntry.getName(), cache));
+		}
+		if (echo)
+			System.out.println("Listed "+directory+": "+list.size()+" files, read when needed");
+		return list;
+	}
+
+	/**
+	 * Creates a predicate from a single file. If the file can not be read
+	 * the predicate is left empty, as with new Predicate(filename).
+	 *
+	 * @param filename	The file to read.
+	 * @return			The predicate.
+	 */
+	public Predicate load(String filename) {
+		return load(filename, Double.NaN);
+	}
+
+	/**
+	 * Creates a predicate from a single file, stripping the constants from
+	 * its lines before they are added to the dictionary.
+	 *
+	 * @param filename		The file to read.
+	 * @param constantValue	The constant value to strip the predicate with (NaN to not strip it).
+	 * @return				The predicate.
+	 */
+	public Predicate load(String filename, double constantValue) {
+		long startTime = System.nanoTime();
+		Map<String, Integer> words;
+		try {
+			words = new TreeMap<String, Integer>(readWords(new File(filename)));
+		} catch (IOException e) {
+			System.out.println("Failed to read file: "+filename);
+			words = new HashMap<String, Integer>();
+		}
+		Metrics.getGlobal().time("load", System.nanoTime() - startTime);
+		if (Double.isNaN(constantValue))
+			return new Predicate(filename, new WordList(words));
+		Predicate predicate = new Predicate(filename, new WordList(ConstantStripper.strip(words, constantValue, echo)));
+		predicate.setConstantValue(constantValue);
+		predicate.strippedWith = constantValue;
+		return predicate;
+	}
+
+	/**
+	 * Strips the constants from several predicates at once. Predicates already
+	 * stripped with the constant value are left as they are.
+	 *
+	 * @param predicates	The predicates to strip.
+	 * @param constantValue	The constant value to strip them with.
+	 */
+	public void stripConstants(List<Predicate> predicates, final double constantValue) {
+		List<Callable<Predicate>> tasks = new ArrayList<Callable<Predicate>>(predicates.size());
+		for (final Predicate predicate : predicates) {
+			tasks.add(new Callable<Predicate>() {
+				public Predicate call() {
+					predicate.setConstantValue(constantValue);
+					predicate.stripConstants();
+					return predicate;
+				}
+			});
+		}
+		invokeAll(tasks, "strip constants");
+	}
+
+	// runs tasks on up to the given number of threads, returning their results in order
+	private <T> List<T> invokeAll(List<Callable<T>> tasks, String what) {
+		List<T> list = new ArrayList<T>(tasks.size());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+		try {
+			for (Future<T> future : executor.invokeAll(tasks))
+				list.add(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while trying to "+what, e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to "+what, e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+		return list;
+	}
+
+	/**
+	 * Reads a file as UTF-8 and counts how many times each line appears. Lines
+	 * end at "\n", "\r" or "\r\n", the same as BufferedReader.readLine.
+	 *
+	 * @param file		The file to read.
+	 * @return			A map relating each line to the number of times it appears.
+	 * @throws IOException	If the file can not be read.
+	 */
+	public static Map<String, Integer> readWords(File file) throws IOException {
+		Map<String, Integer> words = new HashMap<String, Integer>();
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+				throw new IOException("File is too large: "+file);
+
+			// map large files, and read small ones straight into an array
+			ByteBuffer buffer;
+			if (size >= MAP_THRESHOLD) {
+				MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+				buffer = mapped;
+			} else {
+				buffer = ByteBuffer.allocate((int) size);
+				while (buffer.hasRemaining()) {
+					if (channel.read(buffer) < 0)
+						break;
+				}
+				buffer.flip();
+			}
+			countLines(buffer, words);
+		} finally {
+			in.close();
+		}
+		return words;
+	}
+
+	// splits a buffer of UTF-8 text into lines, counting each one
+	private static void countLines(ByteBuffer buffer, Map<String, Integer> words) {
+		byte[] array = buffer.hasArray() ? buffer.array() : null;
+		byte[] line = array != null ? null : new byte[256];
+		int start = 0;
+		int limit = buffer.limit();
+		for (int i = 0; i <= limit; i++) {
+			// '\r' and '\n' never appear inside a multi-byte UTF-8 character
+			byte b = i < limit ? buffer.get(i) : (byte) '\n';
+			if (b != '\n' && b != '\r')
+				continue;
+			// the end of the buffer only ends a line if the line is not empty
+			if (i == limit && start == limit)
+				break;
+
+			String str;
+			if (array != null) {
+				str = new String(array, buffer.arrayOffset() + start, i - start, UTF8);
+			} else {
+				if (line.length < i - start)
+					line = new byte[Math.max(i - start, line.length * 2)];
+				for (int j = start; j < i; j++)
+					line[j - start] = buffer.get(j);
+				str = new String(line, 0, i - start, UTF8);
+			}
+			Integer count = words.get(str);
+			words.put(str, count == null ? 1 : count + 1);
+
+			// "\r\n" is a single line ending
+			if (b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n')
+				i++;
+			start = i + 1;
+		}
+	}
+
+	/**
+	 * @param echo	Whether to print how fast each directory was read.
+	 */
+	public void setEcho(boolean echo) {
+		this.echo = echo;
+	}
+
+	/**
+	 * @param threads	The number of files that may be read at the same time.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Threads must be at least 1: "+threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * @return		The number of files read from the last directory.
+	 */
+	public int getFilesLoaded() {
+		return filesLoaded;
+	}
+
+	/**
+	 * @return		The number of bytes read from the last directory.
+	 */
+	public long getBytesLoaded() {
+		return bytesLoaded;
+	}
+
+	/**
+	 * @return		The time taken to read the last directory, in nanoseconds.
+	 */
+	public long getNanosLoading() {
+		return nanosLoading;
+	}
+
+	/**
+	 * @return		A description of how fast the last directory was read.
+	 */
+	public String getThroughput() {
+		double seconds = Math.max(nanosLoading, 1) / 1e9;
+		double megabytes = bytesLoaded / (1024.0 * 1024.0);
+		return String.format("%d files, %.2f MB in %.3f s (%.1f files/s, %.2f MB/s)",
+				filesLoaded, megabytes, seconds, filesLoaded / seconds, megabytes / seconds);
+	}
+
+}
@@ -0,0 +1,286 @@
+package driver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import metrics.Metrics;
+import text.WordProfile;
+
+/**
+ * A compact binary copy of every predicate in a directory, with their constants
+ * already stripped. Opening a snapshot skips parsing the text files, and it is
+ * rebuilt automatically when any file in the directory is added, removed or
+ * modified.
+ *
+ * The format (all numbers big-endian) is:
+ *   int magic, int version, double constantValue
+ *   int sources, then for each: string name, long lastModified, long length
+ *   int words, then for each: string word
+ *   int predicates, then for each: string name, int size, int[size] words, int[size] counts
+ * where a string is an int byte length followed by UTF-8 bytes, and each
+ * predicate's words are indexes into the snapshot's word table.
+ */
+public class PredicateSnapshot {
+
+	// identifies a snapshot file ("PMS1")
+	private static final int MAGIC = 0x504D5331;
+	// the version of the format, changed whenever the layout or the way lines are stripped changes
+	private static final int VERSION = 3;
+
+	// the predicates stored in the snapshot
+	private List<Predicate> predicates;
+	// the constant value the predicates were stripped with
+	private double constantValue;
+	// the last modified time and length of each source file
+	private Map<String, long[]> sources;
+
+	private PredicateSnapshot(List<Predicate> predicates, double constantValue, Map<String, long[]> sources) {
+		this.predicates = predicates;
+		this.constantValue = constantValue;
+		this.sources = sources;
+	}
+
+	/**
+	 * Loads every predicate in a directory, stripped with the given constant value.
+	 * A snapshot next to the directory is used if it is still up to date, otherwise
+	 * the text files are read and the snapshot is rewritten.
+	 *
+	 * @param directory		The directory to read from.
+	 * @param constantValue	The constant value to strip the predicates with.
+	 * @param loader		The loader used to read the text files.
+	 * @return				The list of predicates.
+	 */
+	public static List<Predicate> loadDirectory(String directory, double constantValue, PredicateLoader loader) {
+		File file = getSnapshotFile(directory);
+		Map<String, long[]> sources = listSources(directory);
+
+		// use the snapshot if nothing has changed since it was written
+		if (file.exists()) {
+			try {
+				long startTime = System.nanoTime();
+				PredicateSnapshot snapshot = read(file, directory, sources, constantValue);
+				if (snapshot != null) {
+					Metrics.getGlobal().time("snapshot", System.nanoTime() - startTime);
+					System.out.println("Opened snapshot "+file+" ("+snapshot.predicates.size()+" predicates in "
+							+(System.nanoTime() - startTime) / 1000000+" ms)");
+					return snapshot.predicates;
+				}
+				System.out.println("Snapshot "+file+" is out of date, rebuilding.");
+			} catch (IOException e) {
+				System.out.println("Failed to read snapshot "+file+": "+e.getMessage());
+			}
+		}
+
+		// otherwise parse the text files and save them for next time
+		List<Predicate> predicates = loader.loadDirectory(directory, constantValue);
+		try {
+			write(file, predicates, constantValue, sources);
+		} catch (IOException e) {
+			System.out.println("Failed to write snapshot "+file+": "+e.getMessage());
+		}
+		return predicates;
+	}
+
+	/**
+	 * @param directory		A predicate directory.
+	 * @return				The snapshot file kept next to the directory.
+	 */
+	public static File getSnapshotFile(String directory) {
+		File folder = new File(directory).getAbsoluteFile();
+		return new File(folder.getParentFile(), folder.getName()+".snapshot");
+	}
+
+	/**
+	 * Writes a snapshot of a list of predicates. The snapshot is written to a
+	 * temporary file first, so readers never see a partial snapshot.
+	 *
+	 * @param file			The snapshot file to write.
+	 * @param predicates	The predicates to store.
+	 * @param constantValue	The constant value the predicates were stripped with.
+	 * @param sources		The last modified time and length of each source file.
+	 * @throws IOException	If the snapshot can not be written.
+	 */
+	public static void write(File file, List<Predicate> predicates, double constantValue, Map<String, long[]> sources) throws IOException {
+		// give each distinct word used by the predicates a local index
+		Map<Integer, Integer> local = new HashMap<Integer, Integer>();
+		List<String> words = new ArrayList<String>();
+		for (Predicate predicate : predicates) {
+			WordList list = predicate.getWordList();
+			for (int i = 0; i < list.size(); i++) {
+				if (!local.containsKey(list.getId(i))) {
+					local.put(list.getId(i), words.size());
+					words.add(list.getWord(i));
+				}
+			}
+		}
+
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(constantValue);
+			out.writeInt(sources.size());
+			for (Map.Entry<String, long[]> source : sources.entrySet()) {
+				writeString(out, source.getKey());
+				out.writeLong(source.getValue()[0]);
+				out.writeLong(source.getValue()[1]);
+			}
+			out.writeInt(words.size());
+			for (String word : words)
+				writeString(out, word);
+			out.writeInt(predicates.size());
+			for (Predicate predicate : predicates) {
+				WordList list = predicate.getWordList();
+				writeString(out, predicate.name);
+				out.writeInt(list.size());
+				for (int i = 0; i < list.size(); i++)
+					out.writeInt(local.get(list.getId(i)));
+				for (int i = 0; i < list.size(); i++)
+					out.writeInt(list.getCount(i));
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Opens a snapshot by memory mapping it. Words are added to the global dictionary.
+	 *
+	 * @param file			The snapshot file to read.
+	 * @param directory		The directory the predicates' files are in.
+	 * @return				The snapshot.
+	 * @throws IOException	If the file is not a valid snapshot.
+	 */
+	public static PredicateSnapshot read(File file, String directory) throws IOException {
+		return read(file, directory, null, Double.NaN);
+	}
+
+	/**
+	 * Opens a snapshot if it was built from the given files with the given
+	 * constant value. The words are only read if it was.
+	 *
+	 * @param file			The snapshot file to read.
+	 * @param directory		The directory the predicates' files are in.
+	 * @param current		The current files in the directory (null to accept any files).
+	 * @param currentValue	The constant value the predicates must have been stripped with.
+	 * @return				The snapshot, or null if it is out of date.
+	 * @throws IOException	If the file is not a valid snapshot.
+	 */
+	private static PredicateSnapshot read(File file, String directory, Map<String, long[]> current, double currentValue) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				throw new IOException("Not a version "+VERSION+" predicate snapshot");
+			double constantValue = buffer.getDouble();
+
+			Map<String, long[]> sources = new HashMap<String, long[]>();
+			int sourceCount = buffer.getInt();
+			for (int i = 0; i < sourceCount; i++)
+				sources.put(readString(buffer), new long[] { buffer.getLong(), buffer.getLong() });
+			if (current != null && !isCurrent(sources, current, constantValue, currentValue))
+				return null;
+
+			// map the snapshot's word table onto the global dictionary, holding the profiles until the lists do
+			WordDictionary dictionary = WordDictionary.getGlobal();
+			WordProfile[] table = new WordProfile[buffer.getInt()];
+			for (int i = 0; i < table.length; i++)
+				table[i] = dictionary.add(readString(buffer));
+
+			List<Predicate> predicates = new ArrayList<Predicate>();
+			int predicateCount = buffer.getInt();
+			for (int p = 0; p < predicateCount; p++) {
+				String name = readString(buffer);
+				int size = buffer.getInt();
+				WordProfile[] words = new WordProfile[size];
+				int[] counts = new int[size];
+				for (int i = 0; i < size; i++)
+					words[i] = table[buffer.getInt()];
+				buffer.asIntBuffer().get(counts);
+				buffer.position(buffer.position() + 4 * size);
+				Predicate predicate = new Predicate(new File(directory, name).getPath(), new WordList(dictionary, words, counts));
+				predicate.setConstantValue(constantValue);
+				predicate.strippedWith = constantValue;
+				predicates.add(predicate);
+			}
+			return new PredicateSnapshot(predicates, constantValue, sources);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated predicate snapshot", e);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IOException("Corrupt predicate snapshot", e);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Lists the files in a directory with their last modified times and lengths.
+	 *
+	 * @param directory		The directory to list.
+	 * @return				A map relating each file name to its last modified time and length.
+	 */
+	public static Map<String, long[]> listSources(String directory) {
+		File folder = new File(directory);
+		if (!folder.isDirectory())
+			throw new IllegalArgumentException(directory+" is not a directory.");
+		Map<String, long[]> sources = new HashMap<String, long[]>();
+		for (File fileEntry : folder.listFiles()) {
+			if (!fileEntry.isDirectory())
+				sources.put(fileEntry.getName(), new long[] { fileEntry.lastModified(), fileEntry.length() });
+		}
+		return sources;
+	}
+
+	// whether the snapshot was built from the same files with the same constant value
+	private static boolean isCurrent(Map<String, long[]> sources, Map<String, long[]> current, double constantValue, double currentValue) {
+		if (constantValue != currentValue || sources.size() != current.size())
+			return false;
+		for (Map.Entry<String, long[]> source : current.entrySet()) {
+			if (!Arrays.equals(source.getValue(), sources.get(source.getKey())))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return		The predicates stored in the snapshot.
+	 */
+	public List<Predicate> getPredicates() {
+		return predicates;
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes(PredicateLoader.UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, PredicateLoader.UTF8);
+	}
+
+}
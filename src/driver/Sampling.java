@@ -0,0 +1,150 @@
+package driver;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Ways of choosing the words of a predicate that are compared, when only some
+ * of them can be. Every strategy skips empty words and gives the positions of
+ * the words chosen in increasing order, so they are still compared in the
+ * predicate's order.
+ *
+ * Taking the first words is biased, since predicates are sorted, for example
+ * towards names starting with "A". The other strategies choose the same number
+ * of words (one more than the limit) from the whole predicate. The random ones
+ * hash each word with a seed rather than drawing from a generator, so the same
+ * words are chosen in every run, whatever order the predicates were read in,
+ * and a smaller sample is always part of a larger one.
+ */
+public enum Sampling {
+
+	/**
+	 * The words within the limit, in the predicate's (sorted) order.
+	 */
+	FIRST {
+		@Override
+		int[] choose(WordList words, int limit, long seed) {
+			int[] positions = new int[limit > 0 ? Math.min(words.size(), limit + 1) : words.size()];
+			int size = 0;
+			for (int i = 0; i < positions.length; i++) {
+				if (!words.getWord(i).isEmpty())
+					positions[size++] = i;
+			}
+			return Arrays.copyOf(positions, size);
+		}
+
+		@Override
+		public int getScanned(WordList words, int limit) {
+			return limit > 0 ? Math.min(words.size(), limit + 1) : words.size();
+		}
+	},
+
+	/**
+	 * A random sample in which a word is more likely to be chosen the more
+	 * often it appears, so the words that make up most of the divergence are
+	 * rarely left out (weighted reservoir sampling).
+	 */
+	FREQUENCY {
+		@Override
+		int[] choose(WordList words, int limit, long seed) {
+			double[] keys = new double[words.size()];
+			for (int i = 0; i < keys.length; i++)
+				keys[i] = Math.log(uniform(words.getWord(i), seed)) / words.getCount(i);
+			return top(words, limit, keys);
+		}
+	},
+
+	/**
+	 * Words spread evenly through the predicate's order, one from the middle of
+	 * each of as many equal strata as there are words to choose.
+	 */
+	STRATIFIED {
+		@Override
+		int[] choose(WordList words, int limit, long seed) {
+			int[] nonEmpty = nonEmpty(words);
+			int count = nonEmpty.length;
+			if (limit <= 0 || limit + 1 >= count)
+				return nonEmpty;
+			int samples = limit + 1;
+			int[] positions = new int[samples];
+			for (int s = 0; s < samples; s++)
+				positions[s] = nonEmpty[(int) ((2L * s + 1) * count / (2L * samples))];
+			return positions;
+		}
+	},
+
+	/**
+	 * A uniform random sample, the same as reservoir sampling would give.
+	 */
+	RESERVOIR {
+		@Override
+		int[] choose(WordList words, int limit, long seed) {
+			double[] keys = new double[words.size()];
+			for (int i = 0; i < keys.length; i++)
+				keys[i] = uniform(words.getWord(i), seed);
+			return top(words, limit, keys);
+		}
+	};
+
+	/**
+	 * Chooses the words of a predicate to compare.
+	 *
+	 * @param words		The predicate's words.
+	 * @param limit		One less than the number of words to choose (0 = all).
+	 * @param seed		The seed of the random strategies.
+	 * @return			The positions of the words chosen, in increasing order.
+	 */
+	abstract int[] choose(WordList words, int limit, long seed);
+
+	/**
+	 * Counts the words looked at to choose a sample, which the fraction of
+	 * words found is worked out from. Only FIRST stops at the limit, the
+	 * others look at every word.
+	 *
+	 * @param words		The predicate's words.
+	 * @param limit		One less than the number of words to choose (0 = all).
+	 * @return			The number of words looked at.
+	 */
+	public int getScanned(WordList words, int limit) {
+		return words.size();
+	}
+
+	// the positions of the words that are not empty
+	private static int[] nonEmpty(WordList words) {
+		return FIRST.choose(words, 0, 0);
+	}
+
+	// the positions of the non-empty words with the highest keys, in increasing order
+	private static int[] top(WordList words, int limit, final double[] keys) {
+		int[] nonEmpty = nonEmpty(words);
+		if (limit <= 0 || limit + 1 >= nonEmpty.length)
+			return nonEmpty;
+		// sort by key, highest first, breaking ties by position
+		Integer[] byKey = new Integer[nonEmpty.length];
+		for (int n = 0; n < nonEmpty.length; n++)
+			byKey[n] = nonEmpty[n];
+		Arrays.sort(byKey, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int byValue = Double.compare(keys[b], keys[a]);
+				return byValue != 0 ? byValue : a.compareTo(b);
+			}
+		});
+		int[] positions = new int[limit + 1];
+		for (int s = 0; s < positions.length; s++)
+			positions[s] = byKey[s];
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	// a number in (0,1) from a word and a seed, the same in every run
+	private static double uniform(String word, long seed) {
+		long h = seed ^ (word.hashCode() * 0x9E3779B97F4A7C15L) ^ word.length();
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return ((h >>> 11) + 0.5) / (1L << 53);
+	}
+
+}
@@ -0,0 +1,163 @@
+package driver;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import text.WordProfile;
+
+/**
+ * Gives every distinct word an int id, so predicates can store their words as
+ * arrays of ids instead of maps of strings. Each word (and its profile) is only
+ * stored once no matter how many predicates contain it.
+ *
+ * The dictionary only holds the profiles weakly. Everything that keeps ids
+ * (word lists, and the similarity tables built from them) also keeps the
+ * profiles of those words, so a word stays in the dictionary for as long as
+ * something uses it. Once nothing does, the garbage collector frees the word
+ * and its profile, and its id is given to a later word. The dictionary
+ * therefore holds the words of the predicates in use, rather than those of
+ * every predicate ever read.
+ */
+public class WordDictionary {
+
+	// the dictionary shared by all predicates
+	private static final WordDictionary global = new WordDictionary();
+
+	// a map relating a word to its id
+	private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	// the profile of each word, indexed by id (null for an id that is free)
+	private volatile ProfileReference[] profiles = new ProfileReference[1024];
+	// the number of ids given out so far, including those that have been freed
+	private int used = 0;
+	// the ids of words that were freed, to be given out again
+	private int[] free = new int[16];
+	private int freeCount = 0;
+	// where the references to profiles that were freed are put by the garbage collector
+	private final ReferenceQueue<WordProfile> freed = new ReferenceQueue<WordProfile>();
+
+	// a weak reference to a profile, remembering the word and id it was for
+	private static class ProfileReference extends WeakReference<WordProfile> {
+
+		final String word;
+		final int id;
+
+		ProfileReference(WordProfile profile, ReferenceQueue<WordProfile> queue) {
+			super(profile, queue);
+			this.word = profile.getWord();
+			this.id = profile.getId();
+		}
+
+	}
+
+	/**
+	 * @return		The dictionary shared by all predicates.
+	 */
+	public static WordDictionary getGlobal() {
+		return global;
+	}
+
+	/**
+	 * Retrieves the profile of a word, adding the word to the dictionary if it
+	 * is new. The word keeps its id for as long as the profile is held.
+	 *
+	 * @param word		The word to look up.
+	 * @return			The profile of the word, whose id is the id of the word.
+	 */
+	public WordProfile add(String word) {
+		// without the lock the id may have been released, or even given to another word,
+		// so the profile is only used if it is still there and is for the same word
+		Integer id = ids.get(word);
+		ProfileReference[] references = profiles;
+		if (id != null && id < references.length) {
+			ProfileReference reference = references[id];
+			WordProfile profile = reference != null ? reference.get() : null;
+			if (profile != null && profile.getWord().equals(word))
+				return profile;
+		}
+		synchronized (this) {
+			release();
+			id = ids.get(word);
+			if (id != null) {
+				// the word may have been freed, but not yet released
+				WordProfile profile = profiles[id].get();
+				if (profile == null) {
+					profile = new WordProfile(word, id);
+					profiles[id] = new ProfileReference(profile, freed);
+				}
+				return profile;
+			}
+			if (freeCount > 0) {
+				id = free[--freeCount];
+			} else {
+				if (used == profiles.length)
+					profiles = Arrays.copyOf(profiles, used * 2);
+				id = used++;
+			}
+			WordProfile profile = new WordProfile(word, id);
+			profiles[id] = new ProfileReference(profile, freed);
+			ids.put(word, id);
+			return profile;
+		}
+	}
+
+	// gives the ids of the words the garbage collector freed back to the dictionary
+	private void release() {
+		ProfileReference reference;
+		while ((reference = (ProfileReference) freed.poll()) != null) {
+			// a word freed and then added again keeps its id with a new reference
+			if (profiles[reference.id] != reference)
+				continue;
+			profiles[reference.id] = null;
+			ids.remove(reference.word, reference.id);
+			if (freeCount == free.length)
+				free = Arrays.copyOf(free, freeCount * 2);
+			free[freeCount++] = reference.id;
+		}
+	}
+
+	/**
+	 * Retrieves the id of a word without adding it.
+	 *
+	 * @param word		The word to look up.
+	 * @return			The id of the word, or -1 if it is not in the dictionary.
+	 */
+	public int getId(String word) {
+		Integer id = ids.get(word);
+		if (id == null)
+			return -1;
+		return id;
+	}
+
+	/**
+	 * @param id		The id of a word that is held, for example by a word list.
+	 * @return			The word with the given id.
+	 */
+	public String getWord(int id) {
+		return getProfile(id).getWord();
+	}
+
+	/**
+	 * Retrieves the profile of a word from its id. Only the ids of words that
+	 * are held somewhere, for example by a word list, can be looked up.
+	 *
+	 * @param id		The id of a word that is held.
+	 * @return			The profile of the word with the given id.
+	 */
+	public WordProfile getProfile(int id) {
+		ProfileReference[] references = profiles;
+		WordProfile profile = id >= 0 && id < references.length && references[id] != null ? references[id].get() : null;
+		if (profile == null)
+			throw new IllegalArgumentException("Unknown word id: "+id);
+		return profile;
+	}
+
+	/**
+	 * @return		The number of distinct words in the dictionary, including any freed but not yet released.
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+}
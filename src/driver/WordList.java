@@ -0,0 +1,254 @@
+package driver;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import text.BigramIndex;
+import text.WordProfile;
+
+/**
+ * An immutable view of the words in a predicate, in the same order as the
+ * predicate iterates over them. Unlike the iterator in Predicate, a word list
+ * can be read by any number of threads at once.
+ *
+ * Words are stored as ids from the global WordDictionary, next to primitive
+ * arrays of their counts and probabilities. The list holds the profile of each
+ * of its words, which keeps the words in the dictionary for as long as the
+ * list is used.
+ */
+public class WordList {
+
+	// the dictionary the word ids come from
+	private final WordDictionary dictionary;
+	// the id of each word (line of text) in the predicate
+	private final int[] ids;
+	// the number of times each word appears
+	private final int[] counts;
+	// the probability of each word being chosen at random
+	private final double[] probabilities;
+	// the profile of each word, used by string similarity metrics
+	private final WordProfile[] profiles;
+	// the word ids in increasing order, for looking words up
+	private final int[] sortedIds;
+	// the position in the list of each word in sortedIds
+	private final int[] sortedPositions;
+	// the bigram index over the words (built when first needed)
+	private volatile BigramIndex bigramIndex = null;
+	// the last sample of the words chosen, kept since every remote predicate is compared with the same one
+	private volatile Sample sample = null;
+
+	// the words chosen by a sampling strategy
+	private static class Sample {
+
+		final Sampling sampling;
+		final int limit;
+		final long seed;
+		final int[] positions;
+
+		Sample(Sampling sampling, int limit, long seed, int[] positions) {
+			this.sampling = sampling;
+			this.limit = limit;
+			this.seed = seed;
+			this.positions = positions;
+		}
+
+	}
+
+	WordList(Map<String, Integer> map) {
+		this(WordDictionary.getGlobal(), map);
+	}
+
+	WordList(WordDictionary dictionary, Map<String, Integer> map) {
+		this.dictionary = dictionary;
+		ids = new int[map.size()];
+		counts = new int[map.size()];
+		profiles = new WordProfile[map.size()];
+		int i = 0;
+		for (Map.Entry<String, Integer> entry : map.entrySet()) {
+			profiles[i] = dictionary.add(entry.getKey());
+			counts[i] = entry.getValue();
+			i++;
+		}
+		probabilities = new double[ids.length];
+		sortedIds = new int[ids.length];
+		sortedPositions = new int[ids.length];
+		index();
+	}
+
+	/**
+	 * @param dictionary	The dictionary the profiles come from.
+	 * @param profiles		The profile of each word, as added to the dictionary.
+	 * @param counts		The number of times each word appears.
+	 */
+	WordList(WordDictionary dictionary, WordProfile[] profiles, int[] counts) {
+		this.dictionary = dictionary;
+		this.profiles = profiles;
+		this.counts = counts;
+		ids = new int[profiles.length];
+		probabilities = new double[ids.length];
+		sortedIds = new int[ids.length];
+		sortedPositions = new int[ids.length];
+		index();
+	}
+
+	// fills in the ids, probabilities and lookup arrays from the profiles and counts
+	private void index() {
+		long[] order = new long[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = profiles[i].getId();
+			probabilities[i] = ((double)counts[i] / ids.length);
+			order[i] = ((long) ids[i] << 32) | i;
+		}
+		Arrays.sort(order);
+		for (int i = 0; i < order.length; i++) {
+			sortedIds[i] = (int) (order[i] >>> 32);
+			sortedPositions[i] = (int) order[i];
+		}
+	}
+
+	/**
+	 * @return		The number of distinct words in the list.
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	/**
+	 * @param i		The position of the word in the list.
+	 * @return		The word at the given position.
+	 */
+	public String getWord(int i) {
+		return profiles[i].getWord();
+	}
+
+	/**
+	 * @param i		The position of the word in the list.
+	 * @return		The dictionary id of the word at the given position.
+	 */
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * @param i		The position of the word in the list.
+	 * @return		The profile of the word at the given position.
+	 */
+	public WordProfile getProfile(int i) {
+		return profiles[i];
+	}
+
+	/**
+	 * @param i		The position of the word in the list.
+	 * @return		The number of times the word at the given position appears.
+	 */
+	public int getCount(int i) {
+		return counts[i];
+	}
+
+	/**
+	 * Retrieves the probability that a word is chosen from the predicate at random.
+	 *
+	 * @param i		The position of the word in the list.
+	 * @return		The probability within the range [0.0,1.0].
+	 */
+	public double getProbability(int i) {
+		return probabilities[i];
+	}
+
+	/**
+	 * Finds the position of a word in the list.
+	 *
+	 * @param word		The word to look for.
+	 * @return			The position of the word, or -1 if it is not in the list.
+	 */
+	public int indexOf(String word) {
+		int id = dictionary.getId(word);
+		if (id < 0)
+			return -1;
+		return indexOfId(id);
+	}
+
+	/**
+	 * Finds the position of a word in the list from its dictionary id.
+	 *
+	 * @param id		The dictionary id of the word to look for.
+	 * @return			The position of the word, or -1 if it is not in the list.
+	 */
+	public int indexOfId(int id) {
+		int i = Arrays.binarySearch(sortedIds, id);
+		if (i < 0)
+			return -1;
+		return sortedPositions[i];
+	}
+
+	/**
+	 * @return		The dictionary the word ids come from.
+	 */
+	public WordDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Estimates the memory used by the list, including its words and their
+	 * profiles and dictionary entries, and its bigram index if it has been
+	 * built. A word in several lists is counted in each of them, so the
+	 * estimates of several lists add up to at least the memory they use.
+	 *
+	 * @return		A rough estimate of the memory used, in bytes.
+	 */
+	public long getMemoryEstimate() {
+		// four int arrays, a double array and a reference array, each with a header
+		long bytes = 64 + 6 * 16 + (long) ids.length * (4 * 4 + 8 + 8);
+		for (WordProfile profile : profiles)
+			bytes += getMemoryEstimate(profile);
+		BigramIndex index = bigramIndex;
+		if (index != null)
+			bytes += index.getMemoryEstimate();
+		return bytes;
+	}
+
+	// a word's string, its profile with the bigrams once computed, its weak reference and its dictionary entry
+	private static long getMemoryEstimate(WordProfile profile) {
+		int length = profile.getWord().length();
+		return 40 + 2 * length + 24 + 16 + 4 * length + 48 + 64;
+	}
+
+	/**
+	 * Chooses the words to compare, or reuses the words chosen last time if
+	 * they were chosen the same way.
+	 *
+	 * @param sampling	How to choose the words.
+	 * @param limit		One less than the number of words to choose (0 = all).
+	 * @param seed		The seed of the random strategies.
+	 * @return			The positions of the words chosen, in increasing order (not to be changed).
+	 */
+	public int[] getSample(Sampling sampling, int limit, long seed) {
+		Sample last = sample;
+		if (last != null && last.sampling == sampling && last.limit == limit && last.seed == seed)
+			return last.positions;
+		int[] positions = sampling.choose(this, limit, seed);
+		sample = new Sample(sampling, limit, seed, positions);
+		return positions;
+	}
+
+	/**
+	 * Retrieves the bigram index over the words, building it the first time.
+	 * Word ids in the index are the positions of the words in this list.
+	 *
+	 * @return		The bigram index.
+	 */
+	public BigramIndex getBigramIndex() {
+		BigramIndex index = bigramIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = bigramIndex;
+				if (index == null) {
+					index = new BigramIndex(profiles);
+					bigramIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+}
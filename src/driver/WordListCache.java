@@ -0,0 +1,200 @@
+package driver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import metrics.Metrics;
+
+/**
+ * Keeps the word lists of lazily loaded predicates within a memory budget.
+ * A predicate's words are read from its file the first time they are needed,
+ * and the least recently used word lists are evicted once the estimated size
+ * of all the lists held goes over the budget. An evicted predicate simply
+ * reads its file again the next time its words are needed.
+ *
+ * The estimate of a list includes its words and their profiles and entries in
+ * the global WordDictionary, which only holds a word while a list (or anything
+ * else) uses it. Evicting a list therefore frees the words no other list has.
+ * The real bound is the budget plus whatever is still held outside the cache:
+ * lists in use by a comparison when they were evicted, a list read that is
+ * bigger than the whole budget, and the words held by a shared vocabulary's
+ * SimilarityTable, which are every word of the remote predicates. A shared
+ * vocabulary should therefore be turned off when a cache is used.
+ */
+public class WordListCache {
+
+	// the estimated bytes of word lists that may be held at once
+	private final long maxBytes;
+	// the word lists held, from the least recently used to the most
+	private final LinkedHashMap<Predicate, Entry> entries = new LinkedHashMap<Predicate, Entry>(16, 0.75f, true);
+	// the estimated bytes of the word lists held
+	private long bytes = 0;
+
+	// the totals since the cache was created
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	// where the hits, misses and evictions are also counted
+	private Metrics metrics = Metrics.getGlobal();
+
+	// a word list and the size it was last estimated at
+	private static class Entry {
+
+		final WordList words;
+		long bytes;
+
+		Entry(WordList words, long bytes) {
+			this.words = words;
+			this.bytes = bytes;
+		}
+
+	}
+
+	/**
+	 * @param maxBytes	The estimated bytes of word lists that may be held at once.
+	 */
+	public WordListCache(long maxBytes) {
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("Cache size must be positive: "+maxBytes);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Retrieves the words of a predicate, reading them if they are not held.
+	 * The file is read without holding the cache's lock, so several predicates
+	 * may be read at once.
+	 *
+	 * @param predicate		The predicate whose words are needed.
+	 * @return				The predicate's words.
+	 */
+	public WordList get(Predicate predicate) {
+		synchronized (this) {
+			Entry entry = entries.get(predicate);
+			if (entry != null) {
+				hits++;
+				metrics.count("wordCacheHits", 1);
+				// the list grows once its bigram index is built
+				long estimate = entry.words.getMemoryEstimate();
+				if (estimate != entry.bytes) {
+					bytes += estimate - entry.bytes;
+					entry.bytes = estimate;
+					evict(predicate);
+				}
+				return entry.words;
+			}
+			misses++;
+			metrics.count("wordCacheMisses", 1);
+		}
+
+		int version = predicate.getVersion();
+		WordList words = predicate.loadWords();
+
+		synchronized (this) {
+			// another thread may have read the same predicate in the meantime
+			Entry entry = entries.get(predicate);
+			if (entry != null)
+				return entry.words;
+			// and words read before the predicate changed (for example was stripped) are not kept
+			if (predicate.getVersion() != version)
+				return words;
+			entry = new Entry(words, words.getMemoryEstimate());
+			entries.put(predicate, entry);
+			bytes += entry.bytes;
+			evict(predicate);
+		}
+		return words;
+	}
+
+	/**
+	 * Drops the words of a predicate, so that they are read again the next
+	 * time they are needed.
+	 *
+	 * @param predicate		The predicate to drop.
+	 */
+	public synchronized void remove(Predicate predicate) {
+		Entry entry = entries.remove(predicate);
+		if (entry != null)
+			bytes -= entry.bytes;
+	}
+
+	/**
+	 * Drops every word list held. The totals are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	// drops the least recently used lists until the rest fit, always keeping the newest
+	private void evict(Predicate newest) {
+		Iterator<Map.Entry<Predicate, Entry>> it = entries.entrySet().iterator();
+		while (bytes > maxBytes && it.hasNext()) {
+			Map.Entry<Predicate, Entry> eldest = it.next();
+			if (eldest.getKey() == newest)
+				continue;
+			bytes -= eldest.getValue().bytes;
+			it.remove();
+			evictions++;
+			metrics.count("wordCacheEvictions", 1);
+		}
+	}
+
+	/**
+	 * @return		The estimated bytes of word lists that may be held at once.
+	 */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @return		The estimated bytes of the word lists held.
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return		The number of word lists held.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return		The number of times the words of a predicate were already held.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return		The number of times the words of a predicate had to be read.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return		The number of word lists dropped to stay within the budget.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @param metrics	Where the hits, misses and evictions are also counted.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return String.format("%d predicates, %.1f of %.1f MB, %d hits, %d misses (%.1f%%), %d evictions",
+				entries.size(), bytes / (1024.0 * 1024.0), maxBytes / (1024.0 * 1024.0), hits, misses,
+				lookups == 0 ? 0.0 : 100.0 * hits / lookups, evictions);
+	}
+
+}
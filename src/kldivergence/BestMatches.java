@@ -0,0 +1,163 @@
+package kldivergence;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import text.BigramIndex;
+import driver.Predicate;
+import driver.WordList;
+
+/**
+ * The most similar remote word for each of the words used from a local predicate.
+ * None of these values depend on the string similarity threshold, so they are found
+ * once per pair of predicates and reused while the threshold is lowered.
+ *
+ * The local words and the norm are known as soon as the matches are created, but
+ * the remote matches may be found a few at a time, so that a pair of predicates
+ * can be abandoned before all of its words have been searched for.
+ */
+class BestMatches {
+
+	// the local predicate the words were taken from
+	Predicate localPredicate;
+	// the remote predicate that was searched for similar words
+	Predicate remotePredicate;
+	// the number of words that are compared
+	int size = 0;
+	// the number of words whose best match has been found so far
+	int matched = 0;
+	// the number of words that were looked at (including empty words)
+	int scanned = 0;
+	// the position in the local word list of each word that is compared
+	int[] positions;
+	// the probability of each local word being chosen
+	double[] localProbabilities;
+	// the probability of the most similar remote word being chosen
+	double[] remoteProbabilities;
+	// the string similarity of the most similar remote word (0.0 if there was none)
+	double[] similarities;
+	// the divergence term of each local word when it has no match
+	double[] normTerms;
+	// the sum of the norm terms, which does not depend on the matches
+	double norm = 0.0;
+	// the smoothing term used in place of a missing probability
+	double smooth;
+	// the searcher over the remote bigram index, kept until every word is matched
+	BigramIndex.Searcher searcher = null;
+	// the similarities between distinct words to read the matches from (null to search the remote words)
+	SimilarityTable table = null;
+	// where the string comparisons made while matching are counted for a select (null to only record them in the metrics)
+	AtomicLong comparisons = null;
+	// the divergence at each threshold, when they were already worked out (null to compute them from the matches)
+	double[] divergences = null;
+
+	/**
+	 * Works out the norm from the local words chosen by a sample, in the
+	 * order they appear in the predicate.
+	 *
+	 * @param localPredicate		The predicate whose words are searched for.
+	 * @param remotePredicate		The predicate to search in.
+	 * @param positions				The positions of the non-empty local words to compare, in increasing order.
+	 * @param scanned				The number of local words looked at to choose them.
+	 * @param smooth				The smoothing term used in place of a missing probability.
+	 */
+	public BestMatches(Predicate localPredicate, Predicate remotePredicate, int[] positions, int scanned, double smooth) {
+		this.localPredicate = localPredicate;
+		this.remotePredicate = remotePredicate;
+		this.smooth = smooth;
+
+		WordList words = localPredicate.getWordList();
+		size = positions.length;
+		this.positions = positions;
+		localProbabilities = new double[size];
+		remoteProbabilities = new double[size];
+		similarities = new double[size];
+		normTerms = new double[size];
+		for (int k = 0; k < size; k++) {
+			double localProbability = words.getProbability(positions[k]);
+			localProbabilities[k] = localProbability;
+			normTerms[k] = (localProbability-smooth) * Math.log(localProbability / smooth);
+			norm += normTerms[k];
+		}
+		this.scanned = scanned;
+	}
+
+	/**
+	 * Creates matches whose divergences were already worked out, for example
+	 * by an earlier run. No words are compared.
+	 *
+	 * @param localPredicate		The predicate whose words were searched for.
+	 * @param remotePredicate		The predicate that was searched.
+	 * @param divergences			The divergence at each threshold.
+	 */
+	public BestMatches(Predicate localPredicate, Predicate remotePredicate, double[] divergences) {
+		this.localPredicate = localPredicate;
+		this.remotePredicate = remotePredicate;
+		this.divergences = divergences;
+	}
+
+	/**
+	 * Creates the matches of the first words of another set of matches.
+	 *
+	 * @param matches		The matches to take the words from.
+	 * @param size			The number of words to take.
+	 * @param scanned		The number of words that would have been looked at.
+	 */
+	private BestMatches(BestMatches matches, int size, int scanned) {
+		localPredicate = matches.localPredicate;
+		remotePredicate = matches.remotePredicate;
+		smooth = matches.smooth;
+		this.size = size;
+		this.matched = size;
+		this.scanned = scanned;
+		positions = Arrays.copyOf(matches.positions, size);
+		localProbabilities = Arrays.copyOf(matches.localProbabilities, size);
+		remoteProbabilities = Arrays.copyOf(matches.remoteProbabilities, size);
+		similarities = Arrays.copyOf(matches.similarities, size);
+		normTerms = Arrays.copyOf(matches.normTerms, size);
+		// summed in the same order as the constructor, so the norm is exactly the same
+		for (int k = 0; k < size; k++)
+			norm += normTerms[k];
+	}
+
+	/**
+	 * Gives the matches that a lower limit would have found. The best match of
+	 * a word does not depend on the limit, so these are the first words of the
+	 * matches found with a higher limit.
+	 *
+	 * @param limit		The maximum number of words to use from a predicate (0 = all).
+	 * @return			The matches of the words within the limit (these matches if they are all within it).
+	 */
+	public BestMatches limitTo(int limit) {
+		if (!isComplete())
+			throw new IllegalStateException("Only complete matches can be limited: "+matched+" of "+size);
+		if (limit <= 0 || size == 0 || positions[size - 1] <= limit)
+			return this;
+		int count = 0;
+		while (count < size && positions[count] <= limit)
+			count++;
+		return new BestMatches(this, count, limit + 1);
+	}
+
+	/**
+	 * Stores the best match for the next local word that has not been matched.
+	 *
+	 * @param remoteProbability		The probability of the most similar remote word.
+	 * @param similarity			How similar the two words are.
+	 */
+	public void add(double remoteProbability, double similarity) {
+		remoteProbabilities[matched] = remoteProbability;
+		similarities[matched] = similarity;
+		matched++;
+		if (matched == size)
+			searcher = null;
+	}
+
+	/**
+	 * @return		Whether the best match of every word has been found.
+	 */
+	public boolean isComplete() {
+		return matched == size;
+	}
+
+}
@@ -0,0 +1,222 @@
+package kldivergence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import driver.Predicate;
+import driver.WordList;
+import metrics.Metrics;
+
+/**
+ * The divergences of pairs of predicates from earlier runs, so that only the
+ * pairs whose words have changed are scored again. Each pair is keyed by a hash
+ * of the content of both predicates and of the settings that affect the score,
+ * so a pair is scored again whenever either file changes, however it is named.
+ *
+ * A pair's divergence is kept for every threshold the search could try, since
+ * the threshold a local predicate ends at depends on all of the remote predicates.
+ * Replaying the search from these values gives the same results as scoring the
+ * pairs again.
+ *
+ * The format (all numbers big-endian) is:
+ *   int magic, int version, int pairs
+ *   then for each pair: long key1, long key2, int thresholds, double[thresholds] divergences
+ */
+public class DivergenceStore {
+
+	// identifies a store file ("PMD1")
+	private static final int MAGIC = 0x504D4431;
+	// the version of the format, changed whenever the layout changes
+	private static final int VERSION = 1;
+
+	private final File file;
+	// the divergences read from the file, by pair
+	private final Map<Key, double[]> stored = new HashMap<Key, double[]>();
+	// the divergences used or scored in this run, which are the ones saved
+	private final Map<Key, double[]> used = new HashMap<Key, double[]>();
+	// the content hash of each predicate, and the version of its words at the time
+	private final Map<Predicate, long[]> hashes = new IdentityHashMap<Predicate, long[]>();
+	// where the reused and scored pairs are counted
+	private Metrics metrics = Metrics.getGlobal();
+
+	// the 128 bit key of a pair
+	private static class Key {
+
+		final long key1;
+		final long key2;
+
+		Key(long key1, long key2) {
+			this.key1 = key1;
+			this.key2 = key2;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Key && ((Key) o).key1 == key1 && ((Key) o).key2 == key2;
+		}
+
+		@Override
+		public int hashCode() {
+			return (int) (key1 ^ (key1 >>> 32));
+		}
+
+	}
+
+	/**
+	 * Opens a store, reading the pairs saved by the last run if the file exists.
+	 * A file in another format, or one that was cut short, is ignored and
+	 * replaced when the store is saved.
+	 *
+	 * @param file			The store file.
+	 * @throws IOException	If the file exists but can not be read.
+	 */
+	public DivergenceStore(File file) throws IOException {
+		this.file = file;
+		if (!file.exists())
+			return;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return;
+			int pairs = in.readInt();
+			for (int p = 0; p < pairs; p++) {
+				Key key = new Key(in.readLong(), in.readLong());
+				double[] divergences = new double[in.readInt()];
+				for (int i = 0; i < divergences.length; i++)
+					divergences[i] = in.readDouble();
+				stored.put(key, divergences);
+			}
+		} catch (EOFException e) {
+			stored.clear();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Looks up the divergences of a pair scored by an earlier run.
+	 *
+	 * @param local			The local predicate.
+	 * @param remote		The remote predicate.
+	 * @param settings		Everything else the divergences depend on.
+	 * @return				The divergence at each threshold, or null if the pair has not been scored.
+	 */
+	public synchronized double[] get(Predicate local, Predicate remote, String settings) {
+		Key key = getKey(local, remote, settings);
+		double[] divergences = used.get(key);
+		if (divergences == null) {
+			divergences = stored.get(key);
+			if (divergences != null)
+				used.put(key, divergences);
+		}
+		metrics.count(divergences != null ? "pairsReused" : "pairsScored", 1);
+		return divergences;
+	}
+
+	/**
+	 * Stores the divergences of a pair, to be saved for the next run.
+	 *
+	 * @param local			The local predicate.
+	 * @param remote		The remote predicate.
+	 * @param settings		Everything else the divergences depend on.
+	 * @param divergences	The divergence at each threshold.
+	 */
+	public synchronized void put(Predicate local, Predicate remote, String settings, double[] divergences) {
+		used.put(getKey(local, remote, settings), divergences);
+	}
+
+	/**
+	 * Writes the pairs used in this run to the file, dropping pairs whose
+	 * predicates have since changed or gone. The file is written to a
+	 * temporary file first, so a failed save leaves the last one in place.
+	 *
+	 * @throws IOException	If the file can not be written.
+	 */
+	public synchronized void save() throws IOException {
+		File temp = File.createTempFile(file.getName()+".", ".tmp", file.getAbsoluteFile().getParentFile());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(used.size());
+			for (Map.Entry<Key, double[]> entry : used.entrySet()) {
+				out.writeLong(entry.getKey().key1);
+				out.writeLong(entry.getKey().key2);
+				out.writeInt(entry.getValue().length);
+				for (double divergence : entry.getValue())
+					out.writeDouble(divergence);
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * @return		The store file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return		The number of pairs read from the file.
+	 */
+	public synchronized int getStoredPairs() {
+		return stored.size();
+	}
+
+	/**
+	 * @param metrics	Where the reused and scored pairs are counted.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// the key of a pair, which differs if the two predicates are swapped
+	private Key getKey(Predicate local, Predicate remote, String settings) {
+		long[] localHash = getContentHash(local);
+		long[] remoteHash = getContentHash(remote);
+		long seed1 = localHash[1] ^ Long.rotateLeft(remoteHash[1], 21);
+		long seed2 = localHash[2] ^ Long.rotateLeft(remoteHash[2], 43);
+		return new Key(SimilarityCache.hash(seed1, settings), SimilarityCache.hash(seed2, settings));
+	}
+
+	// a 128 bit hash of the words and counts of a predicate, worked out again only if they change
+	private long[] getContentHash(Predicate predicate) {
+		int version = predicate.getVersion();
+		long[] hash = hashes.get(predicate);
+		if (hash == null || hash[0] != version) {
+			WordList words = predicate.getWordList();
+			long hash1 = 1;
+			long hash2 = 2;
+			for (int i = 0; i < words.size(); i++) {
+				String word = words.getWord(i);
+				String count = Integer.toString(words.getCount(i));
+				hash1 = SimilarityCache.hash(SimilarityCache.hash(hash1, word), count);
+				hash2 = SimilarityCache.hash(SimilarityCache.hash(hash2, word), count);
+			}
+			hash = new long[] { version, hash1, hash2 };
+			hashes.put(predicate, hash);
+		}
+		return hash;
+	}
+
+}
@@ -2,12 +2,24 @@ package kldivergence;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
+import text.BigramIndex;
+import text.Dice;
 import text.StringCompare;
+import text.WordProfile;
 import driver.Predicate;
+import driver.Sampling;
+import driver.WordList;
+import metrics.Metrics;
 
 public class KLDivergence {
         
@@ -25,6 +37,54 @@ public class KLDivergence {
     double thresholdMin = 0.50;
     // the list of results for each mapping made by the algorithm
     List<Results> results = new ArrayList<Results>();
+    // the number of remote predicates that may be scored at the same time
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    // the threads used to score remote predicates (created when first needed)
+    private ForkJoinPool pool = null;
+    // whether to stop scoring remote predicates that can no longer be the best match
+    private boolean pruning = false;
+    // where counts and timings of the work done are recorded
+    private Metrics metrics = Metrics.getGlobal();
+    // whether to compare each distinct pair of words only once per run
+    private boolean sharedVocabulary = false;
+    // the similarities between the distinct words of the current remote predicates
+    private SimilarityTable table = null;
+    // the similar words saved by earlier runs (null to not save them)
+    private SimilarityCache cache = null;
+    // chooses the remote predicates worth scoring for each local predicate (null to score them all)
+    private Prefilter prefilter = null;
+    // the divergences of pairs of predicates scored by earlier runs (null to score every pair)
+    private DivergenceStore store = null;
+    // the time allowed for each local predicate, in nanoseconds (0 = no limit)
+    private long predicateBudget = 0;
+    // the time allowed for matching a whole list of local predicates, in nanoseconds (0 = no limit)
+    private long runBudget = 0;
+    // when the current run must end (only if runDeadlineSet)
+    private long runDeadline = 0;
+    private boolean runDeadlineSet = false;
+    // when scoring the current local predicate must stop (only if deadlineSet), read by every scoring thread
+    private volatile long deadline = 0;
+    private volatile boolean deadlineSet = false;
+    // orders remote predicates when there is a deadline, if there is no prefilter to do it
+    private Prefilter ranking = null;
+    // how the local words that are compared are chosen, and the seed of the random ways
+    private Sampling sampling = Sampling.FIRST;
+    private long sampleSeed = 0;
+    // whether to start with a small sample of words, growing it until the best remote predicates settle
+    private boolean adaptive = false;
+    // the most remote predicates kept in the results of each local predicate (0 = all of them)
+    private int resultsCapacity = 0;
+    
+    // returned by compare when a remote predicate was abandoned
+    static final double PRUNED = -1.0;
+    // returned by compare when the deadline passed before a remote predicate was scored
+    static final double EXPIRED = -2.0;
+    // the number of local words searched for together, when there is no index to search
+    static final int LOCAL_TILE = 64;
+    // the number of remote words each block of local words is compared with at a time
+    static final int REMOTE_TILE = 256;
+    // the limit an adaptive sample starts at, doubling each round
+    static final int ADAPTIVE_START = 50;
     
     
     // global variables
@@ -52,6 +112,9 @@ public class KLDivergence {
      */
     public Map<Predicate, Predicate> select(List<Predicate> localPredicates, List<Predicate> remotePredicates) {
         Map<Predicate, Predicate> matches = new HashMap<Predicate, Predicate>();
+        // the predicates left once the run's time is up are given whatever can be scored without time
+        runDeadlineSet = runBudget > 0;
+        runDeadline = System.nanoTime() + runBudget;
         // loop through list of local predicates
         for (Predicate predicate : localPredicates) {
             // run the algorithm, attempting to match the current local predicate to a predicate in the remote list
@@ -66,10 +129,11 @@ public class KLDivergence {
             // print as we go (we can print the mapping that is returned, but it all prints at once)
             if (echo) {
             	System.out.print(currentThreshold+": ");
-            	System.out.print(match.getConfidence()+": ");
+            	System.out.print(results.get(results.size() - 1).getConfidence()+": ");
             	System.out.println(predicate.getShortName() + " ~ "+ match.getShortName());
             }
         }
+        runDeadlineSet = false;
         return matches;
     }
     
@@ -81,6 +145,122 @@ public class KLDivergence {
      * @return                                The predicate from the remote list which has been chosen.
      */
     public Predicate select(Predicate p1, List<Predicate> remotePredicates) {
+        return select(p1, remotePredicates, null);
+    }
+    
+    /**
+     * Chooses a predicate's closest match, reusing best matches that were
+     * already found for some or all of the remote predicates.
+     *
+     * @param p1                        The local predicate that will be matched.
+     * @param remotePredicates        The list of candidates the algorithm must choose from.
+     * @param found                        Best matches that were already found (null if there are none).
+     * @return                                The predicate from the remote list which has been chosen.
+     */
+    Predicate select(Predicate p1, List<Predicate> remotePredicates, List<BestMatches> found) {
+        long startTime = System.nanoTime();
+        startDeadline(startTime);
+        SelectStats stats = new SelectStats();
+        Predicate best;
+        try {
+            if (adaptive && found == null)
+                best = selectAdaptive(p1, remotePredicates, stats);
+            else
+                best = selectSample(p1, remotePredicates, found, stats);
+        } finally {
+            deadlineSet = false;
+        }
+        
+        // record how much work this predicate took, over every round of an adaptive sample
+        long duration = System.nanoTime() - startTime;
+        metrics.count("thresholdPasses", stats.passes);
+        metrics.count("remotesScored", stats.scored);
+        metrics.count("remotesPruned", stats.pruned);
+        metrics.count("remotesSkipped", stats.skipped);
+        metrics.count("remotesExpired", stats.expired);
+        if (stats.partial)
+            metrics.count("deadlinesMissed", 1);
+        metrics.time("select", duration);
+        metrics.event("select", p1.toString(), duration)
+            .set("remotes", remotePredicates.size())
+            .set("thresholdPasses", stats.passes)
+            .set("remotesScored", stats.scored)
+            .set("remotesPruned", stats.pruned)
+            .set("remotesSkipped", stats.skipped)
+            .set("remotesExpired", stats.expired)
+            .set("comparisons", stats.comparisons);
+        return best;
+    }
+    
+    // the work done matching one local predicate, added up over the samples it was matched with
+    private static class SelectStats {
+        int passes = 0;
+        int scored = 0;
+        int pruned = 0;
+        int skipped = 0;
+        int expired = 0;
+        long comparisons = 0;
+        // whether the results kept were cut short by the deadline
+        boolean partial = false;
+    }
+    
+    /**
+     * Matches a predicate with a sample of its words that starts small and
+     * doubles in size, until the best match has settled or the sample reaches
+     * the limit. The best match has settled when it is the same twice in a row,
+     * and leads the runner up by more than its own divergence moved between
+     * the two samples. Only the results of the last sample are kept.
+     *
+     * @param p1                        The local predicate that will be matched.
+     * @param remotePredicates        The list of candidates the algorithm must choose from.
+     * @param stats                        Where the work done by every sample is added up.
+     * @return                                The predicate from the remote list which has been chosen.
+     */
+    private Predicate selectAdaptive(Predicate p1, List<Predicate> remotePredicates, SelectStats stats) {
+        // the runner up is needed to tell whether the best match has settled
+        if (resultsCapacity == 1)
+            throw new IllegalStateException("Adaptive sampling needs a results capacity of at least 2: "+resultsCapacity);
+        int fullLimit = limit;
+        int words = p1.getWordList().size();
+        Predicate lastBest = null;
+        double lastValue = 0.0;
+        int rounds = 0;
+        try {
+            for (int size = ADAPTIVE_START; ; size *= 2) {
+                // the limit counts one word less than are taken
+                boolean last = fullLimit > 0 ? size >= fullLimit : size + 1 >= words;
+                limit = last ? fullLimit : size;
+                Predicate best = selectSample(p1, remotePredicates, null, stats);
+                rounds++;
+                Results current = results.get(results.size() - 1);
+                List<Predicate> top = current.getTop(2);
+                Predicate first = top.isEmpty() ? null : top.get(0);
+                double value = first == null ? 0.0 : current.getValue(first);
+                boolean settled = first != null && first == lastBest
+                        && (top.size() < 2 || current.getValue(top.get(1)) - value > Math.abs(value - lastValue));
+                if (last || settled || isExpired()) {
+                    metrics.count("adaptiveRounds", rounds);
+                    return best;
+                }
+                results.remove(results.size() - 1);
+                lastBest = first;
+                lastValue = value;
+            }
+        } finally {
+            limit = fullLimit;
+        }
+    }
+    
+    /**
+     * Chooses a predicate's closest match using the words in its sample.
+     *
+     * @param p1                        The local predicate that will be matched.
+     * @param remotePredicates        The list of candidates the algorithm must choose from.
+     * @param found                        Best matches that were already found (null if there are none).
+     * @param stats                        Where the work done is added up.
+     * @return                                The predicate from the remote list which has been chosen.
+     */
+    private Predicate selectSample(Predicate p1, List<Predicate> remotePredicates, List<BestMatches> found, SelectStats stats) {
 
         // set up
         Predicate best = null;
@@ -89,6 +269,24 @@ public class KLDivergence {
         currentThreshold = thresholdStart;
         double currentThresholdStep = thresholdStep;
         double minDivergence = Double.MAX_VALUE;
+        // the string comparisons made for this predicate alone, since other selects may run at the same time
+        AtomicLong comparisons = new AtomicLong();
+        int passes = 0;
+        int step = 0;
+        int scored = 0;
+        int pruned = 0;
+        int expired = 0;
+        boolean stopped = false;
+        
+        // only score the remote predicates with enough text in common with the local predicate,
+        // unless there are too few of them to find the valid predicates required
+        List<Predicate> candidates = remotePredicates;
+        if (prefilter != null) {
+            candidates = prefilter.getCandidates(p1, remotePredicates, getSample(p1));
+            if (candidates.size() < Math.max(validRequired, 1))
+                candidates = remotePredicates;
+        }
+        int skipped = remotePredicates.size() - candidates.size();
         
         // print some information about the current run
         if (echo) {
@@ -97,16 +295,46 @@ public class KLDivergence {
         }
         
         // create a results structure for the current predicate
-        Results currentResults = new Results(p1);
+        Results currentResults = new Results(p1, resultsCapacity);
+        
+        // compare the local words with the distinct remote words once, for all remote predicates
+        SimilarityTable table = null;
+        if (sharedVocabulary)
+            table = prepareTable(p1, remotePredicates, comparisons);
+        
+        // find the most similar remote words once, since they do not depend on the threshold
+        List<BestMatches> matches = findBestMatches(p1, candidates, table, found, comparisons);
         
         // repeat process until a sufficient number of valid predicates have been found
-        while (validFound < validRequired && currentThreshold > thresholdMin) {
+        while (validFound < validRequired && currentThreshold > thresholdMin
+        		|| validFound < validRequired && candidates != remotePredicates) {
+        	
+        	// once the time is up, keep the results of the last pass
+        	if (passes > 0 && isExpired()) {
+        		stopped = true;
+        		break;
+        	}
+        	
+        	// if the candidates ran out before enough valid predicates were found, start again with every predicate
+        	if (!(currentThreshold > thresholdMin)) {
+        		candidates = remotePredicates;
+        		skipped = 0;
+        		matches = findBestMatches(p1, candidates, table, matches, comparisons);
+        		currentThreshold = thresholdStart;
+        		step = 0;
+        		validFound = -1;
+        		best = null;
+        		metrics.count("prefilterFallbacks", 1);
+        		continue;
+        	}
         	
         	// reset results each time
         	currentResults.clear();
     	
             // setup
             validFound = 0;
+            expired = 0;
+            passes++;
             divergences.clear();
             minDivergence = Double.MAX_VALUE;
             
@@ -115,10 +343,34 @@ public class KLDivergence {
             	System.out.println("THRESH: "+currentThreshold+"\n");
             
             // loop through all remote predicates
-            for (Predicate remotePredicate : remotePredicates) {
+            for (BestMatches match : matches) {
+                Predicate remotePredicate = match.remotePredicate;
                     
+                // a predicate can be abandoned once it can not be the best, as long as
+                // it could not have been one of the valid predicates that are still needed
+                double bound = Double.POSITIVE_INFINITY;
+                if (pruning)
+                    bound = validFound < validRequired ? Math.max(minDivergence, 1.0) : minDivergence;
+                
                 // compares local and remote predicates, storing the percent of shared words
-                double divergence = compare(p1, remotePredicate);
+                // (or reads the divergence at this threshold, if it was already worked out)
+                // (a predicate whose words were not all matched in time is left out)
+                double divergence;
+                if (match.divergences != null)
+                    divergence = match.divergences[step];
+                else if (!pruning && !match.isComplete())
+                    divergence = EXPIRED;
+                else
+                    divergence = compare(match, currentThreshold, bound);
+                if (divergence == PRUNED) {
+                    pruned++;
+                    continue;
+                }
+                if (divergence == EXPIRED) {
+                    expired++;
+                    continue;
+                }
+                scored++;
                 if (divergence < 1.0)
                     validFound++;
                 
@@ -139,19 +391,34 @@ public class KLDivergence {
             
             // decrease the string similarity threshold to allow for more candidate predicates
             currentThreshold -= currentThresholdStep;
+            step++;
             
         }
 
         // if no best was found, use a NULL predicate
+        boolean partial = stopped || expired > 0;
         if (best == null) {
             best = new Predicate();
-        // store the best, flagging it as confident (1.0) if it was
-        // an outlier and not confident (0.0) if it was not.
+        // store the best's confidence with the local predicate's results, flagging it as
+        // confident (1.0) if it was an outlier and not confident (0.0) if it was not.
+        // if time ran out, the confidence is half the fraction of predicates that were scored
+        } else if (partial) {
+            currentResults.setConfidence(0.5 * (matches.size() - expired) / matches.size());
         } else {
-            best.setConfidence(1.0);
+            currentResults.setConfidence(1.0);
         }
         
+        currentResults.setPartial(partial);
         results.add(currentResults);
+        
+        // add up how much work this sample took
+        stats.passes += passes;
+        stats.scored += scored;
+        stats.pruned += pruned;
+        stats.skipped += skipped;
+        stats.expired += expired;
+        stats.comparisons += comparisons.get();
+        stats.partial = partial;
                 
         return best;
     }
@@ -166,99 +433,644 @@ public class KLDivergence {
      * @return                The value returned by KL-Divergence (smaller = more accurate)
      */
     public double compare(Predicate p1, Predicate p2) {
+        return compare(findBestMatches(p1, p2, currentThreshold), currentThreshold);
+    }
+    
+    /**
+     * Runs KL-Divergence over previously found best matches, only counting
+     * the matches that are more similar than the given threshold.
+     *
+     * @param matches        The best remote match for each local word.
+     * @param threshold        The string similarity a match must exceed to be used.
+     * @return                The value returned by KL-Divergence (smaller = more accurate)
+     */
+    double compare(BestMatches matches, double threshold) {
+    	return compare(matches, threshold, Double.POSITIVE_INFINITY);
+    }
+    
+    /**
+     * Runs KL-Divergence over best matches that may not all have been found yet,
+     * finding the rest as they are needed. Every term of the divergence is positive,
+     * so the divergence so far is a lower bound on the final value, and the
+     * comparison is abandoned once that bound reaches the given bound.
+     *
+     * @param matches        The best remote match for each local word.
+     * @param threshold        The string similarity a match must exceed to be used.
+     * @param bound        The divergence at which the comparison can stop.
+     * @return                The value returned by KL-Divergence, or PRUNED if it would have been at least the bound.
+     */
+    double compare(BestMatches matches, double threshold, double bound) {
         
     	// setup
+    	long startTime = System.nanoTime();
     	double divergence = 0.0;
-    	Map.Entry<String, Integer> p1Word, p2Word;
-    	int found = 0;
-    	int i;
-    
-    	double norm = 0.0;
+    	double[] localProbabilities = matches.localProbabilities;
+    	double[] remoteProbabilities = matches.remoteProbabilities;
+    	double[] similarities = matches.similarities;
+    	double[] normTerms = matches.normTerms;
     	
-    	// loop through all words in predicate 1
-		for (i = 0, p1Word = p1.getStart(); p1Word != p1.getLast(); p1Word = p1.getNext(), i++) {
-			
-			// break if past our limit
-			if (limit > 0 && i > limit)
-				break;
-        
-			// if this word is empty, ignore and continue
-			if (p1Word.getKey().isEmpty())
-                continue;
-        
-			// find all similar words in predicate 2 for the current word
-			p2Word = findSimilar(p2, p1Word);
-        
-			// increase the count for number of similar words found
-			found++;
-        
+		// keep track of the percent that have been found
+		updatePercentFound((double) matches.size / matches.scanned);
+    	
+    	for (int k = 0; k < matches.size; k++) {
+    		
+    		// only search for the next word once the divergence so far can not rule this predicate out
+    		if (k == matches.matched) {
+    			if (divergence / matches.norm >= bound) {
+    				metrics.time("divergence", System.nanoTime() - startTime);
+    				return PRUNED;
+    			}
+    			match(matches, k + 1, thresholdMin);
+    			if (matches.matched == k) {
+    				metrics.time("divergence", System.nanoTime() - startTime);
+    				return EXPIRED;
+    			}
+    		}
+    		
+			// a word without a match adds the same term as it does to the norm
+			if (!(similarities[k] > threshold) || remoteProbabilities[k] == 0.0) {
+				divergence += normTerms[k];
+				continue;
+			}
+    		
 			// store the probabilities that each of these words have for being chosen
-			double prob1 = p1.getProbability(p1Word.getKey());
-			double prob2 = smooth;
-			if(p2Word != null) prob2 = p2.getProbability(p2Word.getKey());
-        
-			// do not allow divide by zero, so smooth by dividing by small value
-			if (prob2 == 0.0)
-                prob2 = smooth;
+			double prob1 = localProbabilities[k];
+			double prob2 = remoteProbabilities[k];
         
 			// perform the arithmetic operation required to make the KLDivergence method work.
-			double term = (prob1-prob2) * Math.log(prob1 / prob2);
-			double normTerm = (prob1-smooth) * Math.log(prob1 / smooth);
-
-			divergence += term;
-			norm += normTerm;
+			divergence += (prob1-prob2) * Math.log(prob1 / prob2);
 		}
     
-		// keep track of the percent that have been found
-		double currentPercentFound = ((double) found / i);
-		percentFound = Math.max(percentFound, currentPercentFound);
+		divergence = divergence/(matches.norm);
+		metrics.time("divergence", System.nanoTime() - startTime);
     
-		divergence = divergence/(norm);
+		return divergence;
+    }
     
-		//if(!p2.name.equals(".NULL")) System.out.println(p1.name + " ~ " + p2.name + " KLD:" + divergence);
+    // keeps the highest percent of words found so far
+    private synchronized void updatePercentFound(double currentPercentFound) {
+    	percentFound = Math.max(percentFound, currentPercentFound);
+    }
     
-		return divergence;
+    /**
+     * Finds the best matches of a predicate in every remote predicate, reusing
+     * any that were found before. When pruning, the matches are only found as
+     * each comparison needs them. With a divergence store, pairs scored by an
+     * earlier run are read from it, and the rest are scored in full and added.
+     *
+     * @param p1        The predicate whose words are searched for.
+     * @param remotePredicates        The predicates to search in.
+     * @param table        The similarities between distinct words to read the matches from (null to search).
+     * @param found        Best matches that were already found (null if there are none).
+     * @param comparisons        Where the string comparisons made are counted.
+     * @return                The best matches for each remote predicate, in the same order.
+     */
+    private List<BestMatches> findBestMatches(Predicate p1, List<Predicate> remotePredicates, SimilarityTable table, List<BestMatches> found, AtomicLong comparisons) {
+    	Map<Predicate, BestMatches> known = new IdentityHashMap<Predicate, BestMatches>();
+    	if (found != null) {
+    		for (BestMatches match : found)
+    			known.put(match.remotePredicate, match);
+    	}
+    	List<Predicate> missing = new ArrayList<Predicate>(remotePredicates.size());
+    	for (Predicate remotePredicate : remotePredicates) {
+    		if (!known.containsKey(remotePredicate))
+    			missing.add(remotePredicate);
+    	}
+    	
+    	if (store != null) {
+    		String settings = getSettings();
+    		List<Predicate> changed = new ArrayList<Predicate>(missing.size());
+    		for (Predicate remotePredicate : missing) {
+    			double[] divergences = store.get(p1, remotePredicate, settings);
+    			if (divergences != null)
+    				known.put(remotePredicate, new BestMatches(p1, remotePredicate, divergences));
+    			else
+    				changed.add(remotePredicate);
+    		}
+    		for (BestMatches match : findBestMatches(p1, prioritize(p1, changed), table, comparisons)) {
+    			// matches cut short by the deadline are neither stored nor scored
+    			if (!match.isComplete()) {
+    				known.put(match.remotePredicate, match);
+    				continue;
+    			}
+    			match.divergences = getDivergences(match);
+    			store.put(p1, match.remotePredicate, settings, match.divergences);
+    			known.put(match.remotePredicate, match);
+    		}
+    	} else if (pruning) {
+    		for (Predicate remotePredicate : missing) {
+    			BestMatches match = new BestMatches(p1, remotePredicate, getSample(p1), getScanned(p1), smooth);
+    			match.table = table;
+    			match.comparisons = comparisons;
+    			known.put(remotePredicate, match);
+    		}
+    	} else {
+    		for (BestMatches match : findBestMatches(p1, prioritize(p1, missing), table, comparisons))
+    			known.put(match.remotePredicate, match);
+    	}
+    	
+    	List<BestMatches> matches = new ArrayList<BestMatches>(remotePredicates.size());
+    	for (Predicate remotePredicate : remotePredicates)
+    		matches.add(known.get(remotePredicate));
+    	return matches;
+    }
+    
+    /**
+     * Orders the remote predicates to be scored so that, when there is a deadline,
+     * the ones most likely to be the best match are scored first.
+     *
+     * @param p1        The local predicate.
+     * @param remotePredicates        The remote predicates to be scored.
+     * @return                The remote predicates in the order to score them (the same list if there is no deadline).
+     */
+    private List<Predicate> prioritize(Predicate p1, List<Predicate> remotePredicates) {
+    	if (!deadlineSet || remotePredicates.size() <= 1)
+    		return remotePredicates;
+    	if (prefilter != null)
+    		return prefilter.rank(p1, remotePredicates, getSample(p1));
+    	if (ranking == null)
+    		ranking = new Prefilter(1, Prefilter.MAX_SIGNATURE);
+    	return ranking.rank(p1, remotePredicates, getSample(p1));
+    }
+    
+    // works out when scoring a local predicate started at a given time must stop
+    private void startDeadline(long startTime) {
+    	long end = startTime + predicateBudget;
+    	if (runDeadlineSet && (predicateBudget <= 0 || runDeadline - end < 0))
+    		end = runDeadline;
+    	deadline = end;
+    	deadlineSet = predicateBudget > 0 || runDeadlineSet;
+    }
+    
+    // whether the time for the current local predicate is up
+    private boolean isExpired() {
+    	return deadlineSet && System.nanoTime() - deadline >= 0;
+    }
+    
+    /**
+     * Finds the best matches of a predicate in every remote predicate in full,
+     * through the shared vocabulary if it is used. Nothing is pruned, skipped
+     * or read from a divergence store.
+     *
+     * @param p1        The predicate whose words are searched for.
+     * @param remotePredicates        The predicates to search in.
+     * @return                The best matches for each remote predicate, in the same order.
+     */
+    List<BestMatches> findAllMatches(Predicate p1, List<Predicate> remotePredicates) {
+    	SimilarityTable table = sharedVocabulary ? prepareTable(p1, remotePredicates, null) : null;
+    	return findBestMatches(p1, remotePredicates, table, null);
+    }
+    
+    /**
+     * Works out the divergence of a pair at every threshold the search could try,
+     * in the same order and with the same arithmetic as select.
+     *
+     * @param matches        The best remote match for each local word.
+     * @return                The divergence at each threshold.
+     */
+    private double[] getDivergences(BestMatches matches) {
+    	if (!(thresholdStep > 0.0))
+    		throw new IllegalStateException("Threshold step must be positive to store divergences: "+thresholdStep);
+    	int steps = 0;
+    	for (double threshold = thresholdStart; threshold > thresholdMin; threshold -= thresholdStep)
+    		steps++;
+    	double[] divergences = new double[steps];
+    	double threshold = thresholdStart;
+    	for (int i = 0; i < steps; i++) {
+    		divergences[i] = compare(matches, threshold);
+    		threshold -= thresholdStep;
+    	}
+    	return divergences;
+    }
+    
+    // everything other than the two predicates that a stored divergence depends on
+    private String getSettings() {
+    	String settings = compare.getIdentity()+" limit="+limit+" smooth="+smooth+" start="+thresholdStart
+    			+" step="+thresholdStep+" min="+thresholdMin;
+    	if (sampling != Sampling.FIRST)
+    		settings += " sampling="+sampling+" seed="+sampleSeed;
+    	return settings;
+    }
+    
+    // the positions of the words of a local predicate that are compared
+    private int[] getSample(Predicate p1) {
+    	return p1.getWordList().getSample(sampling, limit, sampleSeed);
+    }
+    
+    // the number of words of a local predicate looked at to choose its sample
+    private int getScanned(Predicate p1) {
+    	return sampling.getScanned(p1.getWordList(), limit);
+    }
+    
+    /**
+     * Finds the best matches of a predicate in every remote predicate,
+     * scoring up to the parallelism level of remote predicates at once.
+     *
+     * @param p1        The predicate whose words are searched for.
+     * @param remotePredicates        The predicates to search in.
+     * @param table        The similarities between distinct words to read the matches from (null to search).
+     * @param comparisons        Where the string comparisons made are counted (null to only record them in the metrics).
+     * @return                The best matches for each remote predicate, in the same order.
+     */
+    List<BestMatches> findBestMatches(final Predicate p1, List<Predicate> remotePredicates, final SimilarityTable table, final AtomicLong comparisons) {
+    	List<BestMatches> matches = new ArrayList<BestMatches>(remotePredicates.size());
+    	
+    	// score one remote predicate at a time if there is nothing to be gained from threads
+    	if (parallelism <= 1 || remotePredicates.size() <= 1) {
+    		for (Predicate remotePredicate : remotePredicates)
+    			matches.add(findBestMatches(p1, remotePredicate, thresholdMin, table, comparisons));
+    		return matches;
+    	}
+    	
+    	// otherwise hand each remote predicate to the pool
+    	List<Callable<BestMatches>> tasks = new ArrayList<Callable<BestMatches>>(remotePredicates.size());
+    	for (final Predicate remotePredicate : remotePredicates) {
+    		tasks.add(new Callable<BestMatches>() {
+    			public BestMatches call() {
+    				return findBestMatches(p1, remotePredicate, thresholdMin, table, comparisons);
+    			}
+    		});
+    	}
+    	try {
+    		for (Future<BestMatches> future : getPool().invokeAll(tasks))
+    			matches.add(future.get());
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("Interrupted while scoring "+p1, e);
+    	} catch (ExecutionException e) {
+    		throw new IllegalStateException("Failed to score "+p1, e.getCause());
+    	}
+    	return matches;
+    }
+    
+    /**
+     * Finds the most similar word in predicate 2 for every word
+     * of predicate 1 that is within the limit. Only the immutable
+     * word lists are read, so this may run on several threads at once.
+     * Matches that are not more similar than the minimum threshold can never
+     * be used, so they may be stored as no match at all.
+     *
+     * @param p1        The predicate whose words are searched for.
+     * @param p2        The predicate to search in.
+     * @param minThreshold        The lowest threshold the matches will be checked against.
+     * @return                The best match (if any) for each word of p1.
+     */
+    BestMatches findBestMatches(Predicate p1, Predicate p2, double minThreshold) {
+    	return findBestMatches(p1, p2, minThreshold, null, null);
+    }
+    
+    /**
+     * Finds the best matches of predicate 1 in predicate 2, reading them from
+     * a table of similarities between distinct words if one is given.
+     *
+     * @param p1        The predicate whose words are searched for.
+     * @param p2        The predicate to search in.
+     * @param minThreshold        The lowest threshold the matches will be checked against.
+     * @param table        The similarities between distinct words (null to search the words of p2).
+     * @param comparisons        Where the string comparisons made are counted (null to only record them in the metrics).
+     * @return                The best match (if any) for each word of p1.
+     */
+    BestMatches findBestMatches(Predicate p1, Predicate p2, double minThreshold, SimilarityTable table, AtomicLong comparisons) {
+    	BestMatches matches = new BestMatches(p1, p2, getSample(p1), getScanned(p1), smooth);
+    	matches.table = table;
+    	matches.comparisons = comparisons;
+    	match(matches, matches.size, minThreshold);
+    	return matches;
+    }
+    
+    /**
+     * Finds the remote words similar to each local word within the limit, if they
+     * have not been found already for an earlier local predicate. The table is
+     * rebuilt whenever the remote predicates change.
+     *
+     * @param p1        The local predicate.
+     * @param remotePredicates        The remote predicates.
+     * @param comparisons        Where the string comparisons made are counted (null to only record them in the metrics).
+     * @return                The table of similarities between distinct words.
+     */
+    private SimilarityTable prepareTable(Predicate p1, List<Predicate> remotePredicates, AtomicLong comparisons) {
+    	if (table == null || !table.isFor(remotePredicates, compare, thresholdMin, cache))
+    		table = new SimilarityTable(remotePredicates, compare, thresholdMin, cache);
+    	final SimilarityTable table = this.table;
+    	final WordList words = p1.getWordList();
+    	final int[] sample = getSample(p1);
+    	int count = sample.length;
+    	
+    	// split the words between the threads, if there is anything to be gained from them
+    	if (parallelism <= 1 || count <= 1) {
+    		count(comparisons, table.prepare(words, sample, 0, count, deadlineSet, deadline));
+    		return table;
+    	}
+    	List<Callable<Long>> tasks = new ArrayList<Callable<Long>>(parallelism);
+    	for (int t = 0; t < parallelism; t++) {
+    		final int from = (int) ((long) count * t / parallelism);
+    		final int to = (int) ((long) count * (t + 1) / parallelism);
+    		tasks.add(new Callable<Long>() {
+    			public Long call() {
+    				return table.prepare(words, sample, from, to, deadlineSet, deadline);
+    			}
+    		});
+    	}
+    	try {
+    		for (Future<Long> future : getPool().invokeAll(tasks))
+    			count(comparisons, future.get());
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new IllegalStateException("Interrupted while scoring "+p1, e);
+    	} catch (ExecutionException e) {
+    		throw new IllegalStateException("Failed to score "+p1, e.getCause());
+    	}
+    	return table;
+    }
+    
+    /**
+     * Finds the best matches of the next few local words that have not been matched yet.
+     *
+     * @param matches        The matches to add to.
+     * @param count        The number of words that should be matched afterwards.
+     * @param minThreshold        The lowest threshold the matches will be checked against.
+     */
+    private void match(BestMatches matches, int count, double minThreshold) {
+    	
+    	// setup
+    	if (matches.matched >= count)
+    		return;
+    	long startTime = System.nanoTime();
+    	int words = count - matches.matched;
+    	long comparisons = 0;
+    	long rejected = 0;
+    	long exactMatches = 0;
+    	WordList p1Words = matches.localPredicate.getWordList();
+    	WordList p2Words = matches.remotePredicate.getWordList();
+    	// the matches can be read straight from the table, when there is one
+    	if (matches.table != null) {
+    		while (matches.matched < count) {
+    			int id = p1Words.getId(matches.positions[matches.matched]);
+    			// a word is left unprepared when the deadline passes first
+    			if (matches.table.get(id) == null)
+    				break;
+    			findSimilar(matches.table, id, p2Words, matches);
+    		}
+    		metrics.count("findSimilar", words);
+    		metrics.time("match", System.nanoTime() - startTime);
+    		return;
+    	}
+    	// Dice only needs to score the words sharing enough bigrams, which the index finds
+    	if (compare instanceof Dice && matches.searcher == null)
+    		matches.searcher = p2Words.getBigramIndex().newSearcher();
+    	BigramIndex.Searcher searcher = matches.searcher;
+    	if (searcher != null) {
+    		comparisons = -searcher.getScored();
+    		rejected = -searcher.getRejected();
+    	}
+    	
+    	// find the most similar word in predicate 2 for each word
+    	WordProfile[] block = null;
+    	int[] exacts = null;
+		while (matches.matched < count) {
+			if (isExpired())
+				break;
+			// without an index, search for a block of words at once, so that each
+			// tile of remote words is read once for the whole block
+			if (searcher == null && count - matches.matched > 1) {
+				if (block == null) {
+					block = new WordProfile[Math.min(LOCAL_TILE, words)];
+					exacts = new int[block.length];
+				}
+				int size = Math.min(block.length, count - matches.matched);
+				for (int b = 0; b < size; b++) {
+					int position = matches.positions[matches.matched + b];
+					block[b] = p1Words.getProfile(position);
+					exacts[b] = p2Words.indexOfId(p1Words.getId(position));
+					if (exacts[b] >= 0)
+						exactMatches++;
+				}
+				comparisons += findSimilar(p2Words, block, exacts, size, matches, minThreshold);
+				continue;
+			}
+			int position = matches.positions[matches.matched];
+			WordProfile word = p1Words.getProfile(position);
+			// look the word itself up first, since an identical word can not be beaten
+			int exact = p2Words.indexOfId(p1Words.getId(position));
+			if (exact >= 0)
+				exactMatches++;
+			if (searcher != null)
+				findSimilar(searcher, p2Words, word, exact, matches, minThreshold);
+			else
+				comparisons += findSimilar(p2Words, word, exact, matches, minThreshold);
+		}
+		
+		// the index only scores the words that could be similar enough, after checking their signatures
+		if (searcher != null) {
+			comparisons += searcher.getScored();
+			rejected += searcher.getRejected();
+			metrics.count("signatureRejects", rejected);
+		}
+		metrics.count("findSimilar", words);
+		metrics.count("exactMatches", exactMatches);
+		count(matches.comparisons, comparisons);
+		metrics.time("match", System.nanoTime() - startTime);
+    }
+    
+    // records string comparisons in the metrics, and in the counter of a select if there is one
+    private void count(AtomicLong counter, long comparisons) {
+    	metrics.count("comparisons", comparisons);
+    	if (counter != null)
+    		counter.addAndGet(comparisons);
     }
     
     /**
-     * Finds the number of 'matches' for the words in two predicates.
-     * The match actually uses a thresholded value returned by the
-     * string similarity metric.
+     * Finds the word in a predicate that is most similar to the given word,
+     * according to the string similarity metric, and stores it as the next
+     * best match.
      *
-     * @param predicate        
-     * @param pair1
-     * @return                        
+     * @param words        The words of the predicate to search.
+     * @param word        The profile of the word to search for.
+     * @param exact        The position of the same word in the predicate (-1 if it is not there).
+     * @param matches        Where to store the best match.
+     * @param minThreshold        The similarity a match must exceed to be stored.
+     * @return                The number of words compared.
      */
-    private Map.Entry<String, Integer> findSimilar(Predicate predicate, Map.Entry<String, Integer> word) {
+    int findSimilar(WordList words, WordProfile word, int exact, BestMatches matches, double minThreshold) {
             
         // setup
-        Map.Entry<String, Integer> pair2, bestMatch = null;
-        String pair1value = word.getKey();
+        int bestMatch = -1;
         double bestMatchValue = 0.0;
+        int end = words.size();
+        
+        // an identical word scores a perfect 1.0, so only an earlier word scoring
+        // the same could be chosen instead of it
+        if (exact >= 0) {
+            double value = compare.compareAtLeast(word, words.getProfile(exact), 1.0);
+            if (value >= 1.0 && value > minThreshold) {
+                bestMatch = exact;
+                bestMatchValue = value;
+                end = exact;
+            }
+        }
         
         // loop through all words in the target predicate
         int i;
-        for (i = 0, pair2 = predicate.getStart(); pair2 != predicate.getLast(); pair2 = predicate.getNext(), i++) {
+        for (i = 0; i < end; i++) {
         	
-        	// break if past our limit
-//			if (limit > 0 && i > limit)
-//				break;
-        	
-            // get the similarity value from the string comparison class
-            double value = compare.compare(pair1value, pair2.getKey());
-            // store the most similar word so far in a variable
-            if (value > bestMatchValue) {
+            // get the similarity value from the string comparison class, which may give up
+            // early when the word can not beat both the best so far and the minimum threshold
+            double value = compare.compareAtLeast(word, words.getProfile(i), Math.max(bestMatchValue, minThreshold));
+            // store the most similar word so far in a variable (any earlier word wins a tie with the identical word)
+            if ((value > bestMatchValue || (i < bestMatch && value == bestMatchValue)) && value > minThreshold) {
                     bestMatchValue = value;
-                    bestMatch = pair2;
+                    bestMatch = i;
             }
+            // nothing can beat a perfect score
+            if (bestMatchValue >= 1.0 && bestMatch <= i)
+                    break;
         }
         
-        // return the best
-        if (bestMatchValue > currentThreshold)
-                return bestMatch;
+        // store the best, whether or not it passes the threshold
+        if (bestMatch >= 0)
+                matches.add(words.getProbability(bestMatch), bestMatchValue);
         else
-                return null;
+                matches.add(smooth, 0.0);
         
+        return exact >= 0 ? i + 1 : i;
+    }
+    
+    /**
+     * Finds the most similar word in a predicate for each of a block of words,
+     * and stores them as the next best matches. The predicate's words are read
+     * a tile at a time, and each tile is compared with every word of the block
+     * that is still searching before moving on to the next. Each word is compared
+     * with the same remote words in the same order as by findSimilar on its own,
+     * so the matches are exactly the same.
+     *
+     * @param words        The words of the predicate to search.
+     * @param block        The profiles of the words to search for.
+     * @param exacts        The position of each of those words in the predicate (-1 if it is not there).
+     * @param size        The number of words in the block.
+     * @param matches        Where to store the best matches.
+     * @param minThreshold        The similarity a match must exceed to be stored.
+     * @return                The number of words compared.
+     */
+    long findSimilar(WordList words, WordProfile[] block, int[] exacts, int size, BestMatches matches, double minThreshold) {
+        
+        // setup, with the state of each word's search
+        int[] bestMatch = new int[size];
+        double[] bestMatchValue = new double[size];
+        int[] end = new int[size];
+        // where each word's search stopped (-1 while it is still searching)
+        int[] stopped = new int[size];
+        int searching = 0;
+        int last = 0;
+        for (int b = 0; b < size; b++) {
+            bestMatch[b] = -1;
+            end[b] = words.size();
+            stopped[b] = -1;
+            // an identical word scores a perfect 1.0, so only an earlier word scoring
+            // the same could be chosen instead of it
+            if (exacts[b] >= 0) {
+                double value = compare.compareAtLeast(block[b], words.getProfile(exacts[b]), 1.0);
+                if (value >= 1.0 && value > minThreshold) {
+                    bestMatch[b] = exacts[b];
+                    bestMatchValue[b] = value;
+                    end[b] = exacts[b];
+                }
+            }
+            if (end[b] == 0)
+                stopped[b] = 0;
+            else
+                searching++;
+            last = Math.max(last, end[b]);
+        }
+        
+        // compare each tile of remote words with every word still searching
+        for (int from = 0; from < last && searching > 0; from += REMOTE_TILE) {
+            for (int b = 0; b < size; b++) {
+                if (stopped[b] >= 0)
+                    continue;
+                WordProfile word = block[b];
+                int to = Math.min(from + REMOTE_TILE, end[b]);
+                for (int i = from; i < to; i++) {
+                    double value = compare.compareAtLeast(word, words.getProfile(i), Math.max(bestMatchValue[b], minThreshold));
+                    if ((value > bestMatchValue[b] || (i < bestMatch[b] && value == bestMatchValue[b])) && value > minThreshold) {
+                        bestMatchValue[b] = value;
+                        bestMatch[b] = i;
+                    }
+                    // nothing can beat a perfect score
+                    if (bestMatchValue[b] >= 1.0 && bestMatch[b] <= i) {
+                        stopped[b] = i;
+                        break;
+                    }
+                }
+                if (stopped[b] < 0 && to == end[b])
+                    stopped[b] = end[b];
+                if (stopped[b] >= 0)
+                    searching--;
+            }
+        }
+        
+        // store the best of each word, whether or not it passes the threshold
+        long comparisons = 0;
+        for (int b = 0; b < size; b++) {
+            if (bestMatch[b] >= 0)
+                matches.add(words.getProbability(bestMatch[b]), bestMatchValue[b]);
+            else
+                matches.add(smooth, 0.0);
+            comparisons += exacts[b] >= 0 ? stopped[b] + 1 : stopped[b];
+        }
+        return comparisons;
+    }
+    
+    /**
+     * Finds the most similar word through a bigram index, which only scores
+     * the words that could be more similar than the minimum threshold.
+     *
+     * @param searcher        The searcher over the words' bigram index.
+     * @param words        The words of the predicate to search.
+     * @param word        The profile of the word to search for.
+     * @param exact        The position of the same word in the predicate (-1 if it is not there).
+     * @param matches        Where to store the best match.
+     * @param minThreshold        The similarity a match must exceed to be stored.
+     */
+    private void findSimilar(BigramIndex.Searcher searcher, WordList words, WordProfile word, int exact, BestMatches matches, double minThreshold) {
+        // an identical word scores a perfect 1.0, as does any other word with the same bigrams
+        int bestMatch = -1;
+        if (exact >= 0 && 1.0 > minThreshold)
+            bestMatch = searcher.findPerfect(word);
+        if (bestMatch < 0)
+            bestMatch = searcher.findBest(word, minThreshold);
+        if (bestMatch >= 0)
+                matches.add(words.getProbability(bestMatch), searcher.getScore());
+        else
+                matches.add(smooth, 0.0);
+    }
+    
+    /**
+     * Reads the most similar word in a predicate from a table of similarities
+     * between distinct words, and stores it as the next best match.
+     *
+     * @param table        The similarities between distinct words.
+     * @param id        The dictionary id of the word to search for.
+     * @param words        The words of the predicate to search.
+     * @param matches        Where to store the best match.
+     */
+    private void findSimilar(SimilarityTable table, int id, WordList words, BestMatches matches) {
+        SimilarityTable.Candidates candidates = table.get(id);
+        int best = candidates == null ? -1 : SimilarityTable.findBest(candidates, words);
+        if (best >= 0)
+                matches.add(words.getProbability(words.indexOfId(candidates.ids[best])), candidates.scores[best]);
+        else
+                matches.add(smooth, 0.0);
+    }
+    
+    // retrieve the pool of threads used for scoring, creating it if necessary
+    // (a pool of the wrong size is shut down, letting any tasks it still has finish)
+    private synchronized ForkJoinPool getPool() {
+    	if (pool == null || pool.getParallelism() != parallelism) {
+    		if (pool != null)
+    			pool.shutdown();
+    		pool = new ForkJoinPool(parallelism);
+    	}
+    	return pool;
     }
     
     /**
@@ -290,6 +1102,170 @@ public class KLDivergence {
     	this.validRequired = validRequired;
     }
     
+    /**
+     * @param parallelism        The number of remote predicates that may be scored at the same time (1 = no threads).
+     */
+    public void setParallelism(int parallelism) {
+    	if (parallelism < 1)
+    		throw new IllegalArgumentException("Parallelism must be at least 1: "+parallelism);
+    	this.parallelism = parallelism;
+    }
+    
+    /**
+     * Pruned remote predicates are left out of the results. The words of each
+     * remote predicate are matched as they are needed, on the calling thread.
+     *
+     * @param pruning        Whether to stop scoring remote predicates that can no longer be the best match.
+     */
+    public void setPruning(boolean pruning) {
+    	this.pruning = pruning;
+    }
+    
+    /**
+     * Skips remote predicates that have little text in common with the local
+     * predicate, judged by MinHash signatures of their character trigrams. If
+     * fewer than validRequired remote predicates are left, or they do not give
+     * enough valid predicates, every remote predicate is scored after all.
+     * Lowering the similarity keeps more of the true matches but skips fewer
+     * predicates. The signatures already worked out are kept if the similarity
+     * gives the same bands and rows as before.
+     *
+     * @param similarity        The fraction of shared trigrams around which remote predicates start being kept (0 = score them all).
+     */
+    public void setPrefilter(double similarity) {
+    	Prefilter next = similarity > 0.0 ? Prefilter.forSimilarity(similarity) : null;
+    	if (next == null || prefilter == null || next.getBands() != prefilter.getBands() || next.getRows() != prefilter.getRows())
+    		prefilter = next;
+    }
+    
+    /**
+     * Pairs of predicates whose words have not changed since an earlier run
+     * are not scored again. Pairs are never pruned while a store is in use,
+     * since every divergence is kept.
+     *
+     * @param store        The divergences of pairs scored by earlier runs (null to score every pair).
+     */
+    public void setDivergenceStore(DivergenceStore store) {
+    	this.store = store;
+    }
+    
+    /**
+     * Stops scoring a local predicate once it has taken longer than the deadline,
+     * returning the best match among the remote predicates scored so far. The
+     * remote predicates are scored from the most promising to the least (by
+     * their MinHash similarity, unless pruning), and those not scored in time
+     * are left out of results that are marked partial.
+     *
+     * @param millis        The time allowed for each local predicate, in milliseconds (0 = no limit).
+     */
+    public void setDeadline(long millis) {
+    	if (millis < 0)
+    		throw new IllegalArgumentException("Deadline must not be negative: "+millis);
+    	predicateBudget = millis * 1000000L;
+    }
+    
+    /**
+     * Limits the time taken to match a whole list of local predicates. Local
+     * predicates reached once the time is up are given partial results, from
+     * whatever can be worked out without scoring any more words.
+     *
+     * @param millis        The time allowed for a run of select over a list, in milliseconds (0 = no limit).
+     */
+    public void setRunDeadline(long millis) {
+    	if (millis < 0)
+    		throw new IllegalArgumentException("Run deadline must not be negative: "+millis);
+    	runBudget = millis * 1000000L;
+    }
+    
+    /**
+     * With a limit, only a sample of each local predicate's words is compared.
+     * Taking the first words favours those early in the predicate's sorted
+     * order, while the other ways spread the sample over the whole predicate.
+     *
+     * @param sampling        How the local words that are compared are chosen.
+     */
+    public void setSampling(Sampling sampling) {
+    	this.sampling = sampling;
+    }
+    
+    /**
+     * @param seed        The seed of the random ways of sampling, which choose the same words for the same seed.
+     */
+    public void setSampleSeed(long seed) {
+    	this.sampleSeed = seed;
+    }
+    
+    /**
+     * Adaptive sampling starts with a limit of ADAPTIVE_START words, doubling
+     * it each round until the best match is the same twice in a row with a clear
+     * lead over the runner up, or the limit is reached. Predicates that settle quickly are
+     * compared with far fewer words, at the cost of the extra rounds for those
+     * that do not. The results must keep at least two remote predicates (a
+     * results capacity of 0 or at least 2), so there is a runner up.
+     *
+     * @param adaptive        Whether to grow the sample of words only while the best matches are still changing.
+     */
+    public void setAdaptive(boolean adaptive) {
+    	this.adaptive = adaptive;
+    }
+    
+    /**
+     * Keeping only the best remote predicates bounds the memory the results
+     * take, which otherwise grows with the number of local predicates times
+     * the number of remote predicates. The divergences that normalize the
+     * results are still those of every remote predicate scored. Adaptive
+     * sampling needs a capacity of 0 or at least 2.
+     *
+     * @param capacity        The most remote predicates kept in the results of each local predicate (0 = all of them).
+     */
+    public void setResultsCapacity(int capacity) {
+    	if (capacity < 0)
+    		throw new IllegalArgumentException("Results capacity must not be negative: "+capacity);
+    	this.resultsCapacity = capacity;
+    }
+    
+    /**
+     * @param metrics        Where counts and timings of the work done are recorded.
+     */
+    public void setMetrics(Metrics metrics) {
+    	this.metrics = metrics;
+    }
+    
+    /**
+     * This pays off when the remote predicates share many of their lines. Otherwise
+     * searching each remote predicate is faster, since it only has to beat the best
+     * match so far rather than the minimum threshold. The table holds every word of
+     * the remote predicates for the whole run, outside any WordListCache's budget.
+     *
+     * @param sharedVocabulary        Whether to compare each distinct pair of words only once per run, rather than
+     *                                 once for each pair of predicates containing them.
+     */
+    public void setSharedVocabulary(boolean sharedVocabulary) {
+    	this.sharedVocabulary = sharedVocabulary;
+    	if (!sharedVocabulary)
+    		table = null;
+    }
+    
+    /**
+     * Forgets the similar words found for the local predicates matched so far,
+     * while keeping the shared vocabulary of the remote predicates. The table
+     * holds each local word it has seen, so a caller matching an endless stream
+     * of local predicates should call this once it is done with each of them.
+     */
+    public void clearSimilarWords() {
+    	if (table != null)
+    		table.clear();
+    }
+    
+    /**
+     * The cache is only used along with the shared vocabulary.
+     *
+     * @param cache        The similar words saved by earlier runs (null to not save them).
+     */
+    public void setSimilarityCache(SimilarityCache cache) {
+    	this.cache = cache;
+    }
+    
     public List<Results> getResults() {
     	return results;
     }
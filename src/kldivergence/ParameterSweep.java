@@ -0,0 +1,216 @@
+package kldivergence;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import text.StringCompare;
+import driver.Predicate;
+import metrics.Metrics;
+
+/**
+ * Runs the algorithm with many configurations at once, giving the same results
+ * as running each configuration on its own.
+ *
+ * The expensive part of a run is finding the most similar remote word for each
+ * local word, and that does not depend on the thresholds or on the number of
+ * valid predicates required. Nor does it depend on the limit, other than which
+ * local words are used. So for each local predicate and each metric, the best
+ * matches are found once with the highest limit of any configuration using the
+ * metric, and every configuration using the metric replays its thresholds over
+ * the first words of those matches.
+ */
+public class ParameterSweep {
+
+	/**
+	 * The settings of one run of the algorithm.
+	 */
+	public static class Configuration {
+
+		final StringCompare compare;
+		final int limit;
+		final double thresholdStart;
+		final double thresholdStep;
+		final int validRequired;
+
+		/**
+		 * @param compare			The string similarity metric to be used.
+		 * @param limit				The maximum number of words to use from a predicate (0 = all).
+		 * @param thresholdStart	The starting string similarity threshold to use for each predicate.
+		 * @param thresholdStep		The amount by which the threshold decreases if enough candidates were not found.
+		 * @param validRequired		The minimum number of predicate candidates necessary to stop lowering the threshold.
+		 */
+		public Configuration(StringCompare compare, int limit, double thresholdStart, double thresholdStep, int validRequired) {
+			this.compare = compare;
+			this.limit = limit;
+			this.thresholdStart = thresholdStart;
+			this.thresholdStep = thresholdStep;
+			this.validRequired = validRequired;
+		}
+
+		@Override
+		public String toString() {
+			return compare.getClass().getSimpleName()+" limit="+limit+" start="+thresholdStart
+					+" step="+thresholdStep+" required="+validRequired;
+		}
+
+	}
+
+	// the configurations to run, in the order they were added
+	private final List<Configuration> configurations = new ArrayList<Configuration>();
+	// the number of remote predicates that may be scored at the same time
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	// whether to compare each distinct pair of words only once per run
+	private boolean sharedVocabulary = false;
+	// the similar words saved by earlier runs (null to not save them)
+	private SimilarityCache cache = null;
+	// where counts and timings of the work done are recorded
+	private Metrics metrics = Metrics.getGlobal();
+
+	/**
+	 * @param configuration		A configuration to run.
+	 */
+	public void add(Configuration configuration) {
+		configurations.add(configuration);
+	}
+
+	/**
+	 * Adds every combination of the given settings.
+	 *
+	 * @param compares			The string similarity metrics.
+	 * @param limits			The maximum numbers of words to use from a predicate (0 = all).
+	 * @param thresholdStarts	The starting string similarity thresholds.
+	 * @param thresholdSteps	The amounts by which the threshold decreases.
+	 * @param validRequired		The minimum numbers of predicate candidates.
+	 */
+	public void addGrid(List<StringCompare> compares, int[] limits, double[] thresholdStarts, double[] thresholdSteps, int[] validRequired) {
+		for (StringCompare compare : compares)
+			for (int limit : limits)
+				for (double thresholdStart : thresholdStarts)
+					for (double thresholdStep : thresholdSteps)
+						for (int required : validRequired)
+							add(new Configuration(compare, limit, thresholdStart, thresholdStep, required));
+	}
+
+	/**
+	 * Matches every local predicate with every configuration. The words of each
+	 * local predicate are freed once every configuration has matched it.
+	 *
+	 * @param localPredicates		The list of predicates to search for in the remote database.
+	 * @param remotePredicates		The list of all possible predicates in the remote database.
+	 * @return						The results of each configuration, in the order they were added.
+	 */
+	public Map<Configuration, List<Results>> run(List<Predicate> localPredicates, List<Predicate> remotePredicates) {
+		// the configurations using each metric, which share their best matches
+		Map<String, List<Configuration>> byMetric = new LinkedHashMap<String, List<Configuration>>();
+		for (Configuration configuration : configurations) {
+			String identity = configuration.compare.getIdentity();
+			if (!byMetric.containsKey(identity))
+				byMetric.put(identity, new ArrayList<Configuration>());
+			byMetric.get(identity).add(configuration);
+		}
+
+		// one instance finds the matches for each metric, and one replays each configuration
+		Map<String, KLDivergence> finders = new LinkedHashMap<String, KLDivergence>();
+		Map<Configuration, KLDivergence> replays = new LinkedHashMap<Configuration, KLDivergence>();
+		for (Map.Entry<String, List<Configuration>> entry : byMetric.entrySet()) {
+			List<Configuration> group = entry.getValue();
+			KLDivergence finder = newInstance(group.get(0).compare);
+			finder.setLimit(getHighestLimit(group));
+			finder.setParallelism(parallelism);
+			finder.setSharedVocabulary(sharedVocabulary);
+			finder.setSimilarityCache(cache);
+			finders.put(entry.getKey(), finder);
+			for (Configuration configuration : group) {
+				KLDivergence replay = newInstance(configuration.compare);
+				replay.setLimit(configuration.limit);
+				replay.setStartingThreshold(configuration.thresholdStart);
+				replay.setThresholdStep(configuration.thresholdStep);
+				replay.setValidRequired(configuration.validRequired);
+				replay.setParallelism(1);
+				replays.put(configuration, replay);
+			}
+		}
+
+		for (Predicate predicate : localPredicates) {
+			long startTime = System.nanoTime();
+			for (Map.Entry<String, List<Configuration>> entry : byMetric.entrySet()) {
+				List<BestMatches> matches = finders.get(entry.getKey()).findAllMatches(predicate, remotePredicates);
+				for (Configuration configuration : entry.getValue()) {
+					List<BestMatches> limited = new ArrayList<BestMatches>(matches.size());
+					for (BestMatches match : matches)
+						limited.add(match.limitTo(configuration.limit));
+					replays.get(configuration).select(predicate, remotePredicates, limited);
+				}
+			}
+			metrics.time("sweep", System.nanoTime() - startTime);
+			// free the word list for the current local predicate (not needed anymore)
+			predicate.free();
+		}
+
+		// (the replays were made metric by metric, so the results follow the configurations instead)
+		Map<Configuration, List<Results>> results = new LinkedHashMap<Configuration, List<Results>>();
+		for (Configuration configuration : configurations)
+			results.put(configuration, replays.get(configuration).getResults());
+		return results;
+	}
+
+	// an instance of the algorithm recording to the sweep's metrics
+	private KLDivergence newInstance(StringCompare compare) {
+		KLDivergence kld = new KLDivergence(compare);
+		kld.setMetrics(metrics);
+		return kld;
+	}
+
+	// the highest limit of a group of configurations (0 = all, which is higher than any other)
+	private static int getHighestLimit(List<Configuration> group) {
+		int highest = group.get(0).limit;
+		for (Configuration configuration : group) {
+			if (configuration.limit <= 0)
+				return 0;
+			highest = Math.max(highest, configuration.limit);
+		}
+		return highest;
+	}
+
+	/**
+	 * @return		The configurations that will be run, in the order they were added.
+	 */
+	public List<Configuration> getConfigurations() {
+		return configurations;
+	}
+
+	/**
+	 * @param parallelism	The number of remote predicates that may be scored at the same time (1 = no threads).
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be at least 1: "+parallelism);
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @param sharedVocabulary	Whether to compare each distinct pair of words only once per run.
+	 */
+	public void setSharedVocabulary(boolean sharedVocabulary) {
+		this.sharedVocabulary = sharedVocabulary;
+	}
+
+	/**
+	 * The cache is only used along with the shared vocabulary.
+	 *
+	 * @param cache		The similar words saved by earlier runs (null to not save them).
+	 */
+	public void setSimilarityCache(SimilarityCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @param metrics	Where counts and timings of the work done are recorded.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+}
@@ -0,0 +1,162 @@
+package kldivergence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import text.MinHash;
+import driver.Predicate;
+import driver.WordList;
+
+/**
+ * Picks the remote predicates worth scoring against a local predicate, using
+ * locality sensitive hashing over MinHash signatures of their words. Each
+ * signature is split into bands of rows, and a remote predicate is a candidate
+ * if any one band is the same as the local predicate's. Pairs sharing a
+ * fraction s of their trigrams become candidates with probability
+ * 1 - (1 - s^rows)^bands, which rises steeply around (1/bands)^(1/rows).
+ *
+ * The signatures of remote predicates are kept for as long as their words do
+ * not change, so each one is only computed once per run.
+ */
+class Prefilter {
+
+	// the most positions a signature may have
+	static final int MAX_SIGNATURE = 128;
+
+	// the number of bands, and the number of signature positions in each
+	private final int bands;
+	private final int rows;
+	// the signature of each remote predicate, and the version of its words at the time
+	private final Map<Predicate, int[]> signatures = new IdentityHashMap<Predicate, int[]>();
+	private final Map<Predicate, Integer> versions = new IdentityHashMap<Predicate, Integer>();
+
+	/**
+	 * @param bands		The number of bands the signatures are split into.
+	 * @param rows		The number of signature positions in each band.
+	 */
+	public Prefilter(int bands, int rows) {
+		if (bands < 1 || rows < 1 || bands * rows > MAX_SIGNATURE)
+			throw new IllegalArgumentException("Bands and rows must be positive, with at most "+MAX_SIGNATURE+" positions: "+bands+" x "+rows);
+		this.bands = bands;
+		this.rows = rows;
+	}
+
+	/**
+	 * Chooses the bands and rows whose steepest point is closest to a similarity,
+	 * using as many signature positions as possible. The lower the similarity,
+	 * the more of the true matches are kept, and the fewer predicates are skipped.
+	 *
+	 * @param similarity	The fraction of shared trigrams around which predicates start being kept.
+	 * @return				The prefilter.
+	 */
+	public static Prefilter forSimilarity(double similarity) {
+		if (!(similarity > 0.0 && similarity < 1.0))
+			throw new IllegalArgumentException("Similarity must be between 0.0 and 1.0: "+similarity);
+		int bestRows = 1;
+		double bestError = Double.MAX_VALUE;
+		for (int r = 1; r <= MAX_SIGNATURE; r++) {
+			int b = MAX_SIGNATURE / r;
+			double error = Math.abs(Math.pow(1.0 / b, 1.0 / r) - similarity);
+			if (error < bestError) {
+				bestError = error;
+				bestRows = r;
+			}
+		}
+		return new Prefilter(MAX_SIGNATURE / bestRows, bestRows);
+	}
+
+	/**
+	 * Finds the remote predicates that share a band with a local predicate.
+	 *
+	 * @param localPredicate	The predicate to find candidates for.
+	 * @param remotePredicates	The predicates to choose from.
+	 * @param sample			The positions of the local words that are compared.
+	 * @return					The candidates, in the same order as the remote predicates.
+	 */
+	public List<Predicate> getCandidates(Predicate localPredicate, List<Predicate> remotePredicates, int[] sample) {
+		int[] local = signature(localPredicate.getWordList(), sample);
+		List<Predicate> candidates = new ArrayList<Predicate>();
+		for (Predicate remotePredicate : remotePredicates) {
+			if (sharesBand(local, getSignature(remotePredicate)))
+				candidates.add(remotePredicate);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Orders remote predicates by how much text they appear to have in common
+	 * with a local predicate, most first. Predicates that appear to have the
+	 * same amount stay in their original order.
+	 *
+	 * @param localPredicate	The predicate to rank the others against.
+	 * @param remotePredicates	The predicates to rank.
+	 * @param sample			The positions of the local words that are compared.
+	 * @return					The remote predicates, from the most promising to the least.
+	 */
+	public List<Predicate> rank(Predicate localPredicate, List<Predicate> remotePredicates, int[] sample) {
+		int[] local = signature(localPredicate.getWordList(), sample);
+		final Map<Predicate, Double> similarities = new IdentityHashMap<Predicate, Double>();
+		for (Predicate remotePredicate : remotePredicates)
+			similarities.put(remotePredicate, MinHash.similarity(local, getSignature(remotePredicate)));
+		List<Predicate> ranked = new ArrayList<Predicate>(remotePredicates);
+		Collections.sort(ranked, new Comparator<Predicate>() {
+			public int compare(Predicate a, Predicate b) {
+				return Double.compare(similarities.get(b), similarities.get(a));
+			}
+		});
+		return ranked;
+	}
+
+	/**
+	 * @return		The number of bands the signatures are split into.
+	 */
+	public int getBands() {
+		return bands;
+	}
+
+	/**
+	 * @return		The number of signature positions in each band.
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	// the signature of every word of a remote predicate, computed again only if the words changed
+	private synchronized int[] getSignature(Predicate predicate) {
+		int version = predicate.getVersion();
+		int[] signature = signatures.get(predicate);
+		if (signature == null || versions.get(predicate) != version) {
+			signature = signature(predicate.getWordList(), null);
+			signatures.put(predicate, signature);
+			versions.put(predicate, version);
+		}
+		return signature;
+	}
+
+	// the signature of the words at the given positions (null = every word)
+	private int[] signature(WordList words, int[] positions) {
+		MinHash minHash = new MinHash(bands * rows);
+		int count = positions != null ? positions.length : words.size();
+		for (int p = 0; p < count; p++)
+			minHash.add(words.getWord(positions != null ? positions[p] : p));
+		return minHash.getSignature();
+	}
+
+	// whether two signatures are the same in every row of at least one band
+	private boolean sharesBand(int[] signature1, int[] signature2) {
+		for (int b = 0; b < bands; b++) {
+			int r = b * rows;
+			int end = r + rows;
+			while (r < end && signature1[r] == signature2[r])
+				r++;
+			if (r == end)
+				return true;
+		}
+		return false;
+	}
+
+}
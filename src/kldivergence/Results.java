@@ -1,98 +1,262 @@
 package kldivergence;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import driver.Predicate;
 
+/**
+ * The divergence of each remote predicate from a local predicate, from the
+ * lowest. The predicates and their values are kept in parallel arrays rather
+ * than boxed in maps. With a capacity, only that many of the predicates with
+ * the lowest values are kept, as a binary heap whose root is the worst of them,
+ * so each predicate added costs O(log capacity) and the results of a local
+ * predicate take the same memory however many remote predicates there are.
+ * Predicates with the same value are kept in the order they were added.
+ *
+ * Each remote predicate should be added at most once between clears.
+ */
 public class Results {
-	
+
 	Predicate localPredicate = null;
 	boolean useShortName = false;
 	boolean displayHeader = true;
 	double minValue = 1.0;
 	double maxValue = 0.0;
-	
-	HashMap<Predicate,Double> remotePredicates = new HashMap<Predicate,Double>();
-    ValueComparator bvc =  new ValueComparator(remotePredicates);
-    TreeMap<Predicate,Double> sortedRemotePredicates = new TreeMap<Predicate,Double>(bvc);
-	
+	// whether the time budget ran out before every remote predicate was scored
+	boolean partial = false;
+	// how confident the algorithm is in the best match of the local predicate (-1.0 = not set)
+	double confidence = -1.0;
+
+	// the most remote predicates kept (0 = all of them)
+	private final int capacity;
+	// the remote predicates kept, their values and the order they were added in,
+	// as a heap with the worst of them first when there is a capacity
+	private Predicate[] predicates;
+	private double[] values;
+	private long[] order;
+	private int size = 0;
+	// the number of predicates added since the last clear
+	private long added = 0;
+
 	public Results(Predicate localPredicate) {
+		this(localPredicate, 0);
+	}
+
+	/**
+	 * @param localPredicate	The predicate the remote predicates are compared with.
+	 * @param capacity			The most remote predicates kept, those with the lowest values (0 = all of them).
+	 */
+	public Results(Predicate localPredicate, int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("Capacity must not be negative: "+capacity);
 		this.localPredicate = localPredicate;
+		this.capacity = capacity;
+		int initial = capacity > 0 ? Math.min(capacity, 16) : 16;
+		predicates = new Predicate[initial];
+		values = new double[initial];
+		order = new long[initial];
 	}
-	
-	public void add(Predicate remotePredicate, Double value) {
-		remotePredicates.put(remotePredicate, value);
+
+	public synchronized void add(Predicate remotePredicate, double value) {
 		minValue = Math.min(minValue, value);
 		maxValue = Math.max(maxValue, value);
+		long sequence = added++;
+		if (capacity == 0 || size < capacity) {
+			if (size == predicates.length)
+				grow();
+			set(size, remotePredicate, value, sequence);
+			size++;
+			if (capacity > 0)
+				siftUp(size - 1);
+		} else if (isBefore(value, sequence, values[0], order[0])) {
+			// the new predicate is better than the worst one kept, which it replaces
+			set(0, remotePredicate, value, sequence);
+			siftDown(predicates, values, order, 0, size);
+		}
 	}
-	
-	public void clear() {
-		remotePredicates.clear();
+
+	public synchronized void clear() {
+		Arrays.fill(predicates, 0, size, null);
+		size = 0;
+		added = 0;
 	}
-	
+
 	public String getPredicateName(Predicate predicate) {
 		if (useShortName)
 			return predicate.getShortName();
 		else
 			return predicate.toString();
 	}
-	
-	public void normalize() {
-		for(Map.Entry<Predicate,Double> entry : remotePredicates.entrySet()) {
-			entry.setValue((entry.getValue() - minValue) / (maxValue - minValue));
-		}
-	}
-	
-	private String getPlainRepresentation() {
-		return sortedRemotePredicates.toString();
+
+	public synchronized void normalize() {
+		for (int i = 0; i < size; i++)
+			values[i] = (values[i] - minValue) / (maxValue - minValue);
 	}
-	
-	private String getTabularRepresentation() {
-		String results = "";
+
+	private String getTabularRepresentation(Sorted sorted) {
+		StringBuilder results = new StringBuilder();
 		if (displayHeader)
-			results += getPredicateName(localPredicate) + "\n";
-		for(Map.Entry<Predicate,Double> entry : sortedRemotePredicates.entrySet()) {
-		  Predicate predicate = entry.getKey();
-		  Double value = entry.getValue();
-		  results += getPredicateName(predicate) + "\t" + value + "\n";
-		}
-		results += "\n";
-		return results;
-	}
-	
-	// TODO: figure out a way to reify predicate
-	private String getTripleRepresentation() {
-		String results = "";
-		String local = getPredicateName(localPredicate);
-		for(Map.Entry<Predicate,Double> entry : sortedRemotePredicates.entrySet()) {
-		  Predicate predicate = entry.getKey();
-		  Double value = entry.getValue();
-		  String tripleName = "pmapping:"+local+"_to_"+getPredicateName(predicate);
-		  results += local + " owl:equivalentProperty " + getPredicateName(predicate);
-		  results += local + " " + getPredicateName(predicate) + "\t" + value + "\n";
-		}
-		results += "\n";
-		return results;
+			results.append(getPredicateName(localPredicate)).append('\n');
+		for (int i = 0; i < sorted.size; i++)
+			results.append(getPredicateName(sorted.predicates[i])).append('\t').append(sorted.values[i]).append('\n');
+		results.append('\n');
+		return results.toString();
 	}
-	
-	public String toString() {
-		sort();
-		return getTabularRepresentation();
+
+	public synchronized String toString() {
+		return getTabularRepresentation(sort());
 	}
-	
+
 	public String getName() {
 		return localPredicate.toString();
 	}
-	
-	private void sort() {
-		sortedRemotePredicates.clear();
-		sortedRemotePredicates.putAll(remotePredicates);
+
+	public Predicate getLocalPredicate() {
+		return localPredicate;
+	}
+
+	/**
+	 * The remote predicates and their values, from the lowest value.
+	 */
+	public static class Sorted {
+
+		public final Predicate[] predicates;
+		public final double[] values;
+		public final int size;
+
+		Sorted(Predicate[] predicates, double[] values, int size) {
+			this.predicates = predicates;
+			this.values = values;
+			this.size = size;
+		}
+
+	}
+
+	/**
+	 * Sorts a copy of the results with a heap sort, leaving the results as they are.
+	 *
+	 * @return		The remote predicates and their values, from the lowest value.
+	 */
+	public synchronized Sorted sort() {
+		Predicate[] sortedPredicates = Arrays.copyOf(predicates, size);
+		double[] sortedValues = Arrays.copyOf(values, size);
+		long[] sortedOrder = Arrays.copyOf(order, size);
+		// with a capacity the copy is already a heap with the worst first
+		if (capacity == 0) {
+			for (int i = size / 2 - 1; i >= 0; i--)
+				siftDown(sortedPredicates, sortedValues, sortedOrder, i, size);
+		}
+		for (int end = size - 1; end > 0; end--) {
+			swap(sortedPredicates, sortedValues, sortedOrder, 0, end);
+			siftDown(sortedPredicates, sortedValues, sortedOrder, 0, end);
+		}
+		return new Sorted(sortedPredicates, sortedValues, size);
+	}
+
+	// the remote predicates with the lowest values, from the lowest (predicates with the same value in the order they were added)
+	public synchronized List<Predicate> getTop(int count) {
+		Sorted sorted = sort();
+		List<Predicate> top = new ArrayList<Predicate>(Math.min(count, sorted.size));
+		for (int i = 0; i < sorted.size && i < count; i++)
+			top.add(sorted.predicates[i]);
+		return top;
+	}
+
+	// the value of a remote predicate (null if it is not in the results)
+	public synchronized Double getValue(Predicate predicate) {
+		for (int i = 0; i < size; i++) {
+			if (predicates[i] == predicate)
+				return values[i];
+		}
+		return null;
+	}
+
+	public void setPartial(boolean partial) {
+		this.partial = partial;
+	}
+
+	// whether the results were cut short, leaving out remote predicates that were not scored in time
+	public boolean isPartial() {
+		return partial;
 	}
-	
-	public int size() {
-		return remotePredicates.size();
+
+	public void setConfidence(double confidence) {
+		this.confidence = confidence;
+	}
+
+	// how confident the algorithm is in the best match (kept with the local predicate, since a remote one can be the best of many)
+	public double getConfidence() {
+		return confidence;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	// the most remote predicates kept (0 = all of them)
+	public int getCapacity() {
+		return capacity;
+	}
+
+	private void grow() {
+		int length = capacity > 0 ? Math.min(capacity, predicates.length * 2) : predicates.length * 2;
+		predicates = Arrays.copyOf(predicates, length);
+		values = Arrays.copyOf(values, length);
+		order = Arrays.copyOf(order, length);
+	}
+
+	private void set(int i, Predicate predicate, double value, long sequence) {
+		predicates[i] = predicate;
+		values[i] = value;
+		order[i] = sequence;
+	}
+
+	// moves a predicate towards the root of the heap while it is worse than its parent
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (!isBefore(values[parent], order[parent], values[i], order[i]))
+				break;
+			swap(predicates, values, order, i, parent);
+			i = parent;
+		}
+	}
+
+	// moves a predicate away from the root of the heap while it is better than one of its children
+	private static void siftDown(Predicate[] predicates, double[] values, long[] order, int i, int size) {
+		while (true) {
+			int worst = i;
+			int left = 2 * i + 1;
+			int right = left + 1;
+			if (left < size && isBefore(values[worst], order[worst], values[left], order[left]))
+				worst = left;
+			if (right < size && isBefore(values[worst], order[worst], values[right], order[right]))
+				worst = right;
+			if (worst == i)
+				return;
+			swap(predicates, values, order, i, worst);
+			i = worst;
+		}
+	}
+
+	private static void swap(Predicate[] predicates, double[] values, long[] order, int i, int j) {
+		Predicate predicate = predicates[i];
+		predicates[i] = predicates[j];
+		predicates[j] = predicate;
+		double value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+		long sequence = order[i];
+		order[i] = order[j];
+		order[j] = sequence;
+	}
+
+	// whether one predicate comes before another, by value and then by the order they were added in
+	private static boolean isBefore(double value1, long order1, double value2, long order2) {
+		int byValue = Double.compare(value1, value2);
+		return byValue < 0 || byValue == 0 && order1 < order2;
 	}
 
 }
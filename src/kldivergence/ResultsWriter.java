@@ -0,0 +1,201 @@
+package kldivergence;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import driver.Predicate;
+
+/**
+ * Writes results to a file as they are given, one local predicate at a time,
+ * so the results of a run never have to be held as text. The text is encoded
+ * as UTF-8 into one buffer, which is written to the file's channel whenever it
+ * fills up.
+ *
+ * The tab separated format has a line "local remote value" for each remote
+ * predicate in the results, from the lowest value. The N-Triples format has a
+ * triple stating that the local predicate is owl:equivalentProperty to its best
+ * match, for each local predicate with one. A local predicate whose results are
+ * partial, or whose best divergence is not below 1.0, has no match stated, only
+ * a comment saying why. A predicate's IRI is a namespace
+ * followed by its name, with the characters not allowed in an IRI
+ * percent-encoded.
+ */
+public abstract class ResultsWriter implements Closeable {
+
+	// the size of the buffer the text is encoded into
+	private static final int BUFFER_SIZE = 1 << 16;
+	// the property relating a local predicate to its best match
+	static final String EQUIVALENT_PROPERTY = "<http://www.w3.org/2002/07/owl#equivalentProperty>";
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final FileChannel channel;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	// the text of one line, reused from line to line
+	protected final StringBuilder line = new StringBuilder();
+
+	private ResultsWriter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * @param file			The file to write, replacing it if it exists.
+	 * @return				A writer of tab separated lines.
+	 * @throws IOException	If the file can not be opened.
+	 */
+	public static ResultsWriter tsv(File file) throws IOException {
+		return new TsvWriter(file);
+	}
+
+	/**
+	 * @param file			The file to write, replacing it if it exists.
+	 * @param namespace		The IRI the name of each predicate is appended to.
+	 * @return				A writer of N-Triples.
+	 * @throws IOException	If the file can not be opened.
+	 */
+	public static ResultsWriter nTriples(File file, String namespace) throws IOException {
+		return new NTriplesWriter(file, namespace);
+	}
+
+	/**
+	 * @param results		The results of a local predicate.
+	 * @throws IOException	If the file can not be written.
+	 */
+	public abstract void write(Results results) throws IOException;
+
+	/**
+	 * Writes the rest of the text and closes the file.
+	 *
+	 * @throws IOException	If the file can not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			encode(CharBuffer.allocate(0), true);
+			while (encoder.flush(buffer).isOverflow())
+				drain();
+			drain();
+		} finally {
+			channel.close();
+		}
+	}
+
+	// encodes the current line into the buffer, writing the buffer out whenever it is full
+	protected void writeLine() throws IOException {
+		line.append('\n');
+		encode(CharBuffer.wrap(line), false);
+		line.setLength(0);
+	}
+
+	private void encode(CharBuffer text, boolean endOfInput) throws IOException {
+		while (true) {
+			CoderResult result = encoder.encode(text, buffer, endOfInput);
+			if (result.isOverflow())
+				drain();
+			else if (result.isUnderflow())
+				return;
+			else
+				result.throwException();
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * A line "local remote value" for each remote predicate, from the lowest value.
+	 */
+	private static class TsvWriter extends ResultsWriter {
+
+		TsvWriter(File file) throws IOException {
+			super(file);
+		}
+
+		@Override
+		public void write(Results results) throws IOException {
+			Results.Sorted sorted = results.sort();
+			String local = results.getPredicateName(results.getLocalPredicate());
+			for (int i = 0; i < sorted.size; i++) {
+				line.append(local).append('\t').append(results.getPredicateName(sorted.predicates[i]))
+						.append('\t').append(sorted.values[i]);
+				writeLine();
+			}
+		}
+
+	}
+
+	/**
+	 * A triple "local owl:equivalentProperty best" for each local predicate with a valid best
+	 * match, and a comment for each one whose best match can not be trusted.
+	 */
+	private static class NTriplesWriter extends ResultsWriter {
+
+		private final String namespace;
+
+		NTriplesWriter(File file, String namespace) throws IOException {
+			super(file);
+			this.namespace = namespace;
+		}
+
+		@Override
+		public void write(Results results) throws IOException {
+			Results.Sorted sorted = results.sort();
+			if (sorted.size == 0)
+				return;
+			// a best match found before the time ran out, or with no words in common
+			// (a divergence of 1.0 or more, or NaN), is not stated as an equivalence
+			String reason = null;
+			if (results.isPartial())
+				reason = "the results are partial";
+			else if (!(sorted.values[0] < 1.0))
+				reason = "the best divergence is "+sorted.values[0];
+			if (reason != null) {
+				line.append("# ");
+				appendIri(results.getLocalPredicate());
+				line.append(" has no match: ").append(reason);
+				writeLine();
+				return;
+			}
+			appendIri(results.getLocalPredicate());
+			line.append(' ').append(EQUIVALENT_PROPERTY).append(' ');
+			appendIri(sorted.predicates[0]);
+			line.append(" .");
+			writeLine();
+		}
+
+		// appends <namespace + name>, percent-encoding the characters an IRIREF can not hold (all of them ASCII)
+		private void appendIri(Predicate predicate) {
+			line.append('<');
+			appendEscaped(namespace);
+			appendEscaped(predicate.toString());
+			line.append('>');
+		}
+
+		private void appendEscaped(String text) {
+			for (int i = 0; i < text.length(); i++) {
+				char c = text.charAt(i);
+				if (c <= ' ' || c == '<' || c == '>' || c == '"' || c == '{' || c == '}'
+						|| c == '|' || c == '^' || c == '`' || c == '\\') {
+					line.append('%').append(HEX[c >> 4]).append(HEX[c & 0xF]);
+				} else {
+					line.append(c);
+				}
+			}
+		}
+
+	}
+
+}
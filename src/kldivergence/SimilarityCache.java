@@ -0,0 +1,291 @@
+package kldivergence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.zip.CRC32;
+
+import metrics.Metrics;
+
+/**
+ * A fixed-size file of similar word lists, kept between runs so that the same
+ * words are not compared again. Each entry holds the remote words found to be
+ * similar to one local word, as positions in a remote vocabulary.
+ *
+ * The file is memory mapped. It is split into buckets of a few slots, and a
+ * new entry replaces the oldest entry in its bucket, so the file never grows.
+ * Several runs may share a file: writes lock the bucket being written, and every
+ * entry carries a checksum so that a partly written entry reads as a miss.
+ *
+ * The file starts with a header (int magic, int version, int slotSize, int slots),
+ * and each slot is laid out as:
+ *   long key1, long key2, long written, int count, int checksum,
+ *   then count times: int position, double score
+ */
+public class SimilarityCache {
+
+	// identifies a cache file ("PMC1")
+	private static final int MAGIC = 0x504D4331;
+	// the version of the format, changed whenever the layout changes
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int ENTRY_HEADER_SIZE = 32;
+	private static final int CANDIDATE_SIZE = 12;
+	// the number of slots an entry may be stored in
+	private static final int BUCKET_SIZE = 4;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int slotSize;
+	private final int slots;
+	// where the hits and misses are counted
+	private Metrics metrics = Metrics.getGlobal();
+
+	/**
+	 * Opens a cache file, creating it if it does not exist. The size is only
+	 * used when the file is created: an existing file keeps its own size, since
+	 * other runs may have it open. A file in another format is cleared.
+	 *
+	 * @param file			The cache file.
+	 * @param maxBytes		The size of the file.
+	 * @param slotSize		The size of each entry, which limits the number of similar words it can hold.
+	 * @throws IOException	If the file can not be opened.
+	 */
+	public SimilarityCache(File file, long maxBytes, int slotSize) throws IOException {
+		if (slotSize < ENTRY_HEADER_SIZE + CANDIDATE_SIZE)
+			throw new IllegalArgumentException("Slot size is too small: "+slotSize);
+		long slotCount = (maxBytes - HEADER_SIZE) / slotSize / BUCKET_SIZE * BUCKET_SIZE;
+		if (slotCount < BUCKET_SIZE || HEADER_SIZE + slotCount * slotSize > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Cache size must be between a bucket and 2 GB: "+maxBytes);
+		this.file = file;
+
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		FileLock lock = channel.lock();
+		try {
+			// use the file as it is if it is a cache file
+			ByteBuffer header = ByteBuffer.allocate(16);
+			if (channel.size() >= HEADER_SIZE) {
+				channel.read(header, 0);
+				header.flip();
+				if (header.getInt() == MAGIC && header.getInt() == VERSION) {
+					int existingSlotSize = header.getInt();
+					int existingSlots = header.getInt();
+					if (existingSlotSize >= ENTRY_HEADER_SIZE + CANDIDATE_SIZE && existingSlots >= BUCKET_SIZE
+							&& channel.size() == HEADER_SIZE + (long) existingSlots * existingSlotSize) {
+						slotSize = existingSlotSize;
+						slotCount = existingSlots;
+					}
+				}
+				header.clear();
+			}
+			long size = HEADER_SIZE + slotCount * slotSize;
+			if (channel.size() != size) {
+				// otherwise start again with an empty file
+				channel.truncate(0);
+				raf.setLength(size);
+				header.putInt(MAGIC).putInt(VERSION).putInt(slotSize).putInt((int) slotCount);
+				header.flip();
+				channel.write(header, 0);
+			}
+			this.slotSize = slotSize;
+			this.slots = (int) slotCount;
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Opens a cache file with 64 MB of 2 KB entries.
+	 *
+	 * @param file			The cache file.
+	 * @throws IOException	If the file can not be opened.
+	 */
+	public SimilarityCache(File file) throws IOException {
+		this(file, 64L << 20, 2048);
+	}
+
+	/**
+	 * @return		The most similar words an entry can hold.
+	 */
+	public int getCapacity() {
+		return (slotSize - ENTRY_HEADER_SIZE) / CANDIDATE_SIZE;
+	}
+
+	/**
+	 * Looks up an entry.
+	 *
+	 * @param key1		The first half of the entry's key.
+	 * @param key2		The second half of the entry's key.
+	 * @param positions	Where to store the position of each similar word (at least getCapacity long).
+	 * @param scores	Where to store the score of each similar word (at least getCapacity long).
+	 * @return			The number of similar words, or -1 if the entry is not in the cache.
+	 */
+	public int get(long key1, long key2, int[] positions, double[] scores) {
+		ByteBuffer view = buffer.duplicate();
+		int first = bucket(key1);
+		for (int s = first; s < first + BUCKET_SIZE; s++) {
+			int offset = HEADER_SIZE + s * slotSize;
+			if (view.getLong(offset) != key1 || view.getLong(offset + 8) != key2)
+				continue;
+			int count = view.getInt(offset + 24);
+			if (count < 0 || count > getCapacity())
+				continue;
+			// read the whole entry, then make sure it was not being written at the time
+			byte[] entry = new byte[ENTRY_HEADER_SIZE + count * CANDIDATE_SIZE];
+			view.position(offset);
+			view.get(entry);
+			ByteBuffer in = ByteBuffer.wrap(entry);
+			if (in.getLong(0) != key1 || in.getLong(8) != key2 || in.getInt(24) != count
+					|| in.getInt(28) != checksum(entry))
+				continue;
+			in.position(ENTRY_HEADER_SIZE);
+			for (int c = 0; c < count; c++) {
+				positions[c] = in.getInt();
+				scores[c] = in.getDouble();
+			}
+			metrics.count("similarityCacheHits", 1);
+			return count;
+		}
+		metrics.count("similarityCacheMisses", 1);
+		return -1;
+	}
+
+	/**
+	 * Stores an entry, replacing the oldest entry in its bucket. Entries with
+	 * more similar words than getCapacity are not stored.
+	 *
+	 * @param key1		The first half of the entry's key.
+	 * @param key2		The second half of the entry's key.
+	 * @param positions	The position of each similar word.
+	 * @param scores	The score of each similar word.
+	 * @param count		The number of similar words.
+	 * @return			Whether the entry was stored.
+	 * @throws IOException	If the slot can not be locked.
+	 */
+	public boolean put(long key1, long key2, int[] positions, double[] scores, int count) throws IOException {
+		if (count > getCapacity())
+			return false;
+		byte[] entry = new byte[ENTRY_HEADER_SIZE + count * CANDIDATE_SIZE];
+		ByteBuffer out = ByteBuffer.wrap(entry);
+		out.putLong(key1).putLong(key2).putLong(System.currentTimeMillis()).putInt(count).putInt(0);
+		for (int c = 0; c < count; c++)
+			out.putInt(positions[c]).putDouble(scores[c]);
+		out.putInt(28, checksum(entry));
+
+		// lock the bucket against other runs (and other threads, since file locks are per process)
+		int first = bucket(key1);
+		long start = HEADER_SIZE + (long) first * slotSize;
+		synchronized (this) {
+			FileLock lock = channel.lock(start, (long) BUCKET_SIZE * slotSize, false);
+			try {
+				// reuse the slot holding the same key, otherwise replace the oldest
+				ByteBuffer view = buffer.duplicate();
+				int slot = first;
+				long oldest = Long.MAX_VALUE;
+				for (int s = first; s < first + BUCKET_SIZE; s++) {
+					int offset = HEADER_SIZE + s * slotSize;
+					if (view.getLong(offset) == key1 && view.getLong(offset + 8) == key2) {
+						slot = s;
+						break;
+					}
+					long written = view.getLong(offset + 16);
+					if (written < oldest) {
+						oldest = written;
+						slot = s;
+					}
+				}
+				view.position(HEADER_SIZE + slot * slotSize);
+				view.put(entry);
+			} finally {
+				lock.release();
+			}
+		}
+		metrics.count("similarityCacheWrites", 1);
+		return true;
+	}
+
+	/**
+	 * Closes the file. Entries already written stay in it.
+	 *
+	 * @throws IOException	If the file can not be closed.
+	 */
+	public void close() throws IOException {
+		buffer.force();
+		raf.close();
+	}
+
+	/**
+	 * @return		The cache file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return		The fraction of lookups that were found in the cache, or 0.0 if there were none.
+	 */
+	public double getHitRate() {
+		long hits = metrics.getCount("similarityCacheHits");
+		long lookups = hits + metrics.getCount("similarityCacheMisses");
+		return lookups == 0 ? 0.0 : (double) hits / lookups;
+	}
+
+	/**
+	 * @param metrics	Where the hits and misses are counted.
+	 */
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Hashes a string into 64 bits, for building keys.
+	 *
+	 * @param seed		The hash of whatever came before the string.
+	 * @param str		The string to hash.
+	 * @return			The new hash.
+	 */
+	public static long hash(long seed, String str) {
+		long h = seed ^ 0xcbf29ce484222325L;
+		for (int i = 0; i < str.length(); i++) {
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		// the length keeps "ab"+"c" apart from "a"+"bc"
+		h ^= str.length();
+		h *= 0x100000001b3L;
+		return mix(h);
+	}
+
+	// spreads the bits of a hash (the finalizer of MurmurHash3)
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	// the first slot of the bucket a key belongs in
+	private int bucket(long key1) {
+		int buckets = slots / BUCKET_SIZE;
+		return (int) ((key1 & Long.MAX_VALUE) % buckets) * BUCKET_SIZE;
+	}
+
+	// the checksum of an entry, leaving out the checksum itself
+	private static int checksum(byte[] entry) {
+		CRC32 crc = new CRC32();
+		crc.update(entry, 0, 28);
+		crc.update(entry, ENTRY_HEADER_SIZE, entry.length - ENTRY_HEADER_SIZE);
+		return (int) crc.getValue();
+	}
+
+}
@@ -0,0 +1,319 @@
+package kldivergence;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import text.BigramIndex;
+import text.Dice;
+import text.StringCompare;
+import text.WordProfile;
+import driver.Predicate;
+import driver.WordList;
+
+/**
+ * The similarities between distinct words, found once per run. Every distinct
+ * word of the remote predicates is stored once, so a local word is compared with
+ * a remote word only once, however many remote predicates contain the remote word
+ * and however many local predicates contain the local word. Finding the best match
+ * of a local word in a remote predicate is then a matter of looking its most
+ * similar remote words up in the predicate's word list.
+ *
+ * The table holds the profile of every remote word, and of every local word
+ * it has prepared, until it is cleared or replaced. Those words stay in the
+ * dictionary even when the word lists they came from are freed.
+ */
+class SimilarityTable {
+
+	// the remote predicates the table was built for, and the version of their words at the time
+	private final Predicate[] remotePredicates;
+	private final int[] remoteVersions;
+	// the string similarity metric used
+	private final StringCompare compare;
+	// the similarity a pair of words must exceed to be stored
+	private final double minThreshold;
+	// the dictionary id and profile of every distinct remote word
+	private final int[] vocabulary;
+	private final WordProfile[] profiles;
+	// the bigram index over the distinct remote words (Dice only)
+	private final BigramIndex index;
+	// the remote words similar to each local word, by the local word's dictionary id
+	private final ConcurrentMap<Integer, Candidates> candidates = new ConcurrentHashMap<Integer, Candidates>();
+	// the similar words saved by earlier runs (null if there are none)
+	private final SimilarityCache cache;
+	// the start of every cache key, identifying the metric, threshold and remote vocabulary
+	private long cacheKey1;
+	private long cacheKey2;
+
+	/**
+	 * The remote words more similar to a local word than the minimum threshold,
+	 * from the most similar to the least.
+	 */
+	static class Candidates {
+
+		// the local word, held so its dictionary id is not given to another word while the table has it
+		final WordProfile word;
+		// the dictionary id of each remote word
+		final int[] ids;
+		// how similar each remote word is to the local word
+		final double[] scores;
+
+		Candidates(WordProfile word, int[] ids, double[] scores) {
+			this.word = word;
+			this.ids = ids;
+			this.scores = scores;
+		}
+
+	}
+
+	/**
+	 * Collects the distinct words of a list of remote predicates.
+	 *
+	 * @param remotePredicates		The predicates to collect the words of.
+	 * @param compare				The string similarity metric to use.
+	 * @param minThreshold			The similarity a pair of words must exceed to be stored.
+	 * @param cache					The similar words saved by earlier runs (null for none).
+	 */
+	public SimilarityTable(List<Predicate> remotePredicates, StringCompare compare, double minThreshold, SimilarityCache cache) {
+		this.compare = compare;
+		this.minThreshold = minThreshold;
+		this.cache = cache;
+
+		// gather the profile of every remote word, then order them alphabetically (so a word has
+		// the same position in every run) and drop the duplicates
+		this.remotePredicates = remotePredicates.toArray(new Predicate[remotePredicates.size()]);
+		remoteVersions = new int[this.remotePredicates.length];
+		WordProfile[] words = new WordProfile[16];
+		int n = 0;
+		for (int p = 0; p < this.remotePredicates.length; p++) {
+			// the lists are only held while they are read, since they may be evicted from a cache,
+			// but the table holds the profiles, which keeps the words in the dictionary
+			remoteVersions[p] = this.remotePredicates[p].getVersion();
+			WordList list = this.remotePredicates[p].getWordList();
+			if (n + list.size() > words.length)
+				words = Arrays.copyOf(words, Math.max(n + list.size(), words.length * 2));
+			for (int i = 0; i < list.size(); i++)
+				words[n++] = list.getProfile(i);
+		}
+		Arrays.sort(words, 0, n, new Comparator<WordProfile>() {
+			public int compare(WordProfile a, WordProfile b) {
+				return a.getWord().compareTo(b.getWord());
+			}
+		});
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (distinct == 0 || words[i].getId() != words[distinct - 1].getId())
+				words[distinct++] = words[i];
+		}
+		profiles = Arrays.copyOf(words, distinct);
+		vocabulary = new int[distinct];
+		for (int v = 0; v < distinct; v++)
+			vocabulary[v] = profiles[v].getId();
+		index = compare instanceof Dice ? new BigramIndex(profiles) : null;
+
+		// saved entries are only valid for the same metric, threshold and remote words
+		if (cache != null) {
+			cacheKey1 = SimilarityCache.hash(1, compare.getIdentity());
+			cacheKey2 = SimilarityCache.hash(2, compare.getIdentity());
+			String threshold = Double.toString(minThreshold);
+			cacheKey1 = SimilarityCache.hash(cacheKey1, threshold);
+			cacheKey2 = SimilarityCache.hash(cacheKey2, threshold);
+			for (WordProfile profile : profiles) {
+				cacheKey1 = SimilarityCache.hash(cacheKey1, profile.getWord());
+				cacheKey2 = SimilarityCache.hash(cacheKey2, profile.getWord());
+			}
+		}
+	}
+
+	/**
+	 * @param remotePredicates		A list of remote predicates.
+	 * @param compare				A string similarity metric.
+	 * @param minThreshold			A minimum threshold.
+	 * @param cache					A cache of similar words.
+	 * @return						Whether the table can be used for these arguments.
+	 */
+	public boolean isFor(List<Predicate> remotePredicates, StringCompare compare, double minThreshold, SimilarityCache cache) {
+		if (this.compare != compare || this.minThreshold != minThreshold || this.cache != cache
+				|| remotePredicates.size() != this.remotePredicates.length)
+			return false;
+		for (int p = 0; p < this.remotePredicates.length; p++) {
+			if (remotePredicates.get(p) != this.remotePredicates[p]
+					|| remotePredicates.get(p).getVersion() != remoteVersions[p])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the similar remote words of some local words that have not been
+	 * seen before. This may be called from several threads at once.
+	 *
+	 * @param words		The local words.
+	 * @param from		The position of the first word.
+	 * @param to		The position after the last word.
+	 * @return			The number of string comparisons made.
+	 */
+	public long prepare(WordList words, int from, int to) {
+		return prepare(words, null, from, to, false, 0);
+	}
+
+	/**
+	 * Finds the similar remote words of some local words that have not been
+	 * seen before, stopping once a deadline has passed. The words not reached
+	 * are left unprepared, to be found by a later call.
+	 *
+	 * @param words			The local words.
+	 * @param positions		The positions of the words that are compared (null = every word).
+	 * @param from			The index in positions of the first word.
+	 * @param to			The index in positions after the last word.
+	 * @param hasDeadline	Whether to stop at the deadline.
+	 * @param deadline		The System.nanoTime at which to stop.
+	 * @return				The number of string comparisons made.
+	 */
+	public long prepare(WordList words, int[] positions, int from, int to, boolean hasDeadline, long deadline) {
+		long comparisons = 0;
+		BigramIndex.Searcher searcher = null;
+		int[] cached = cache != null ? new int[cache.getCapacity()] : null;
+		double[] scores = cache != null ? new double[cache.getCapacity()] : null;
+		for (int p = from; p < to; p++) {
+			if (hasDeadline && System.nanoTime() - deadline >= 0)
+				break;
+			int i = positions != null ? positions[p] : p;
+			String word = words.getWord(i);
+			if (word.isEmpty() || candidates.containsKey(words.getId(i)))
+				continue;
+
+			// use the words saved by an earlier run if there are any
+			long key1 = 0, key2 = 0;
+			if (cache != null) {
+				key1 = SimilarityCache.hash(cacheKey1, word);
+				key2 = SimilarityCache.hash(cacheKey2, word);
+				int count = cache.get(key1, key2, cached, scores);
+				if (count >= 0) {
+					candidates.putIfAbsent(words.getId(i), toIds(new Candidates(words.getProfile(i), Arrays.copyOf(cached, count), Arrays.copyOf(scores, count))));
+					continue;
+				}
+			}
+
+			if (index != null && searcher == null)
+				searcher = index.newSearcher();
+			long before = searcher != null ? searcher.getScored() : 0;
+			Candidates found = find(words.getProfile(i), searcher);
+			comparisons += searcher != null ? searcher.getScored() - before : profiles.length;
+			if (cache != null) {
+				try {
+					cache.put(key1, key2, found.ids, found.scores, found.ids.length);
+				} catch (IOException e) {
+					System.out.println("Failed to write to "+cache.getFile()+": "+e.getMessage());
+				}
+			}
+			candidates.putIfAbsent(words.getId(i), toIds(found));
+		}
+		return comparisons;
+	}
+
+	/**
+	 * @param id		The dictionary id of a local word passed to prepare.
+	 * @return			The remote words similar to it, or null if it was not prepared.
+	 */
+	public Candidates get(int id) {
+		return candidates.get(id);
+	}
+
+	/**
+	 * Forgets the similar words of every local word prepared so far, letting
+	 * the local words leave the dictionary once their lists are freed.
+	 */
+	public void clear() {
+		candidates.clear();
+	}
+
+	/**
+	 * Finds the best match of a local word in a remote predicate. As when
+	 * searching the predicate itself, the first word in the predicate's order
+	 * wins a tie.
+	 *
+	 * @param candidates	The remote words similar to the local word.
+	 * @param words			The remote predicate's words.
+	 * @return				The candidate that is the best match, or -1 if the predicate contains none.
+	 */
+	public static int findBest(Candidates candidates, WordList words) {
+		int best = -1;
+		int bestPosition = -1;
+		for (int c = 0; c < candidates.ids.length; c++) {
+			if (best >= 0 && candidates.scores[c] < candidates.scores[best])
+				break;
+			int position = words.indexOfId(candidates.ids[c]);
+			if (position >= 0 && (best < 0 || position < bestPosition)) {
+				best = c;
+				bestPosition = position;
+			}
+		}
+		return best;
+	}
+
+	// compares a local word with every remote word that could be similar enough,
+	// giving the positions of the similar words in the vocabulary
+	private Candidates find(WordProfile word, BigramIndex.Searcher searcher) {
+		int found = 0;
+		int[] ids;
+		double[] scores;
+		if (searcher != null) {
+			// Dice only needs to score the words sharing enough bigrams, which the index finds
+			found = searcher.findAll(word, minThreshold);
+			ids = new int[found];
+			scores = new double[found];
+			for (int c = 0; c < found; c++) {
+				ids[c] = searcher.getResultId(c);
+				scores[c] = searcher.getResultScore(c);
+			}
+		} else {
+			ids = new int[16];
+			scores = new double[16];
+			for (int v = 0; v < profiles.length; v++) {
+				double value = compare.compareAtLeast(word, profiles[v], minThreshold);
+				if (value > minThreshold) {
+					if (found == ids.length) {
+						ids = Arrays.copyOf(ids, found * 2);
+						scores = Arrays.copyOf(scores, found * 2);
+					}
+					ids[found] = v;
+					scores[found] = value;
+					found++;
+				}
+			}
+		}
+		return sort(word, ids, scores, found);
+	}
+
+	// swaps the vocabulary positions of candidates for their dictionary ids
+	private Candidates toIds(Candidates found) {
+		int[] ids = new int[found.ids.length];
+		for (int c = 0; c < ids.length; c++)
+			ids[c] = vocabulary[found.ids[c]];
+		return new Candidates(found.word, ids, found.scores);
+	}
+
+	// orders candidates from the most similar to the least
+	private static Candidates sort(WordProfile word, int[] ids, final double[] scores, int found) {
+		Integer[] order = new Integer[found];
+		for (int c = 0; c < found; c++)
+			order[c] = c;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(scores[b], scores[a]);
+			}
+		});
+		int[] sortedIds = new int[found];
+		double[] sortedScores = new double[found];
+		for (int c = 0; c < found; c++) {
+			sortedIds[c] = ids[order[c]];
+			sortedScores[c] = scores[order[c]];
+		}
+		return new Candidates(word, sortedIds, sortedScores);
+	}
+
+}
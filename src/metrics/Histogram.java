@@ -0,0 +1,83 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with one bucket per power of two nanoseconds. Values can
+ * be recorded from any number of threads at once, and percentiles are reported
+ * as the upper end of the bucket they fall in, so they are within a factor of
+ * two of the true value.
+ */
+public class Histogram {
+
+	// bucket i holds values in [2^(i-1), 2^i), and bucket 0 holds 0
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param nanos		The latency to record, in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos))
+			current = max.get();
+	}
+
+	/**
+	 * @return		The number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return		The sum of the values recorded, in nanoseconds.
+	 */
+	public long getTotal() {
+		return total.get();
+	}
+
+	/**
+	 * @return		The largest value recorded, in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return		The mean of the values recorded, in nanoseconds.
+	 */
+	public long getMean() {
+		long n = count.get();
+		return n == 0 ? 0 : total.get() / n;
+	}
+
+	/**
+	 * Estimates a percentile from the buckets.
+	 *
+	 * @param percentile	The percentile, within the range [0.0,1.0].
+	 * @return				The upper end of the bucket holding the percentile, in nanoseconds.
+	 */
+	public long getPercentile(double percentile) {
+		long n = count.get();
+		if (n == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile * n));
+		long seen = 0;
+		for (int i = 0; i < 64; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank)
+				return Math.min(i == 0 ? 0 : (1L << i) - 1, getMax());
+		}
+		return getMax();
+	}
+
+}
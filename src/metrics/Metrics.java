@@ -0,0 +1,268 @@
+package metrics;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters, latency histograms and events for the matching pipeline, which can
+ * be written out as JSON at the end of a run. Everything may be recorded from
+ * any number of threads at once.
+ *
+ * Events are kept for expensive operations that are worth looking at one by
+ * one, such as selecting the match for a local predicate.
+ */
+public class Metrics {
+
+	// the metrics shared by the whole program
+	private static final Metrics global = new Metrics();
+
+	// whether anything is recorded
+	private volatile boolean enabled = true;
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+	private final LinkedList<Event> events = new LinkedList<Event>();
+	// the most events kept, dropping the oldest first
+	private volatile int maxEvents = Integer.MAX_VALUE;
+
+	/**
+	 * @return		The metrics shared by the whole program.
+	 */
+	public static Metrics getGlobal() {
+		return global;
+	}
+
+	/**
+	 * Adds to a counter.
+	 *
+	 * @param name		The name of the counter.
+	 * @param amount	The amount to add.
+	 */
+	public void count(String name, long amount) {
+		if (enabled)
+			getCounter(name).addAndGet(amount);
+	}
+
+	/**
+	 * Records how long something took.
+	 *
+	 * @param name		The name of the timer.
+	 * @param nanos		The time taken, in nanoseconds.
+	 */
+	public void time(String name, long nanos) {
+		if (enabled)
+			getTimer(name).record(nanos);
+	}
+
+	/**
+	 * Records an event, which can be given attributes afterwards.
+	 *
+	 * @param type		The kind of event, such as "select".
+	 * @param name		What the event was about, such as the predicate's name.
+	 * @param nanos		The time the event took, in nanoseconds.
+	 * @return			The event.
+	 */
+	public Event event(String type, String name, long nanos) {
+		Event event = new Event(type, name, nanos);
+		if (enabled) {
+			synchronized (events) {
+				events.add(event);
+				while (events.size() > maxEvents)
+					events.removeFirst();
+			}
+		}
+		return event;
+	}
+
+	/**
+	 * @param name		The name of the counter.
+	 * @return			The value of the counter (0 if nothing was counted).
+	 */
+	public long getCount(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0 : counter.get();
+	}
+
+	/**
+	 * @param name		The name of the timer.
+	 * @return			The histogram of the times recorded (empty if nothing was recorded).
+	 */
+	public Histogram getTimer(String name) {
+		Histogram timer = timers.get(name);
+		if (timer == null) {
+			timers.putIfAbsent(name, new Histogram());
+			timer = timers.get(name);
+		}
+		return timer;
+	}
+
+	private AtomicLong getCounter(String name) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			counters.putIfAbsent(name, new AtomicLong());
+			counter = counters.get(name);
+		}
+		return counter;
+	}
+
+	/**
+	 * @param enabled	Whether to record anything (recording is on by default).
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Limits the events kept, so that a long running process does not keep
+	 * every event it records. Counters and timers are not affected.
+	 *
+	 * @param maxEvents	The most events kept, dropping the oldest first.
+	 */
+	public void setMaxEvents(int maxEvents) {
+		if (maxEvents < 0)
+			throw new IllegalArgumentException("Maximum events must not be negative: "+maxEvents);
+		this.maxEvents = maxEvents;
+		synchronized (events) {
+			while (events.size() > maxEvents)
+				events.removeFirst();
+		}
+	}
+
+	/**
+	 * @return		Whether anything is recorded.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void clear() {
+		counters.clear();
+		timers.clear();
+		synchronized (events) {
+			events.clear();
+		}
+	}
+
+	/**
+	 * Describes everything recorded so far as JSON. Times are in nanoseconds.
+	 *
+	 * @return		The JSON summary.
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n  \"counters\": {");
+		String separator = "\n";
+		for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+			json.append(separator).append("    ").append(quote(counter.getKey())).append(": ").append(counter.getValue().get());
+			separator = ",\n";
+		}
+		json.append("\n  },\n  \"timers\": {");
+		separator = "\n";
+		for (Map.Entry<String, Histogram> timer : new TreeMap<String, Histogram>(timers).entrySet()) {
+			Histogram histogram = timer.getValue();
+			json.append(separator).append("    ").append(quote(timer.getKey())).append(": {")
+				.append("\"count\": ").append(histogram.getCount())
+				.append(", \"total\": ").append(histogram.getTotal())
+				.append(", \"mean\": ").append(histogram.getMean())
+				.append(", \"p50\": ").append(histogram.getPercentile(0.5))
+				.append(", \"p90\": ").append(histogram.getPercentile(0.9))
+				.append(", \"p99\": ").append(histogram.getPercentile(0.99))
+				.append(", \"max\": ").append(histogram.getMax())
+				.append("}");
+			separator = ",\n";
+		}
+		json.append("\n  },\n  \"events\": [");
+		separator = "\n";
+		synchronized (events) {
+			for (Event event : events) {
+				json.append(separator).append("    ").append(event.toJson());
+				separator = ",\n";
+			}
+		}
+		json.append("\n  ]\n}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes the JSON summary to a file.
+	 *
+	 * @param file		The file to write.
+	 * @throws IOException	If the file can not be written.
+	 */
+	public void save(File file) throws IOException {
+		Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			out.write(toJson());
+		} finally {
+			out.close();
+		}
+	}
+
+	// quotes a string for JSON
+	static String quote(String str) {
+		StringBuilder quoted = new StringBuilder(str.length() + 2);
+		quoted.append('"');
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '"' || c == '\\')
+				quoted.append('\\').append(c);
+			else if (c < 0x20)
+				quoted.append(String.format("\\u%04x", (int) c));
+			else
+				quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+	/**
+	 * A single timed operation, with any number of named values.
+	 */
+	public static class Event {
+
+		private final String type;
+		private final String name;
+		private final long nanos;
+		private final Map<String, Long> values = new LinkedHashMap<String, Long>();
+
+		Event(String type, String name, long nanos) {
+			this.type = type;
+			this.name = name;
+			this.nanos = nanos;
+		}
+
+		/**
+		 * @param key		The name of the value.
+		 * @param value		The value.
+		 * @return			This event.
+		 */
+		public synchronized Event set(String key, long value) {
+			values.put(key, value);
+			return this;
+		}
+
+		synchronized String toJson() {
+			StringBuilder json = new StringBuilder();
+			json.append("{\"type\": ").append(quote(type))
+				.append(", \"name\": ").append(quote(name))
+				.append(", \"nanos\": ").append(nanos);
+			for (Map.Entry<String, Long> value : values.entrySet())
+				json.append(", ").append(quote(value.getKey())).append(": ").append(value.getValue());
+			return json.append("}").toString();
+		}
+
+	}
+
+}
@@ -0,0 +1,556 @@
+package text;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * An inverted index from bigrams to the words that contain them, used to find
+ * the word with the highest Dice coefficient without comparing against every word.
+ * Bigrams are packed into ints in the same way as Dice.
+ *
+ * Two filters keep the number of scored words low:
+ *   - length: a word with m bigrams can score at most 2*min(n,m)/(n+m) against
+ *     a query with n bigrams, so only postings in a window of lengths are read.
+ *   - count (prefix): a word must share more than minScore*(n+m)/2 bigrams, so
+ *     only the rarest n-a+1 query bigrams need to be probed for candidates.
+ * Candidates are then scored exactly by merging their sorted bigram lists.
+ *
+ * Before a candidate is scored, a 128 bit signature of its bigrams is checked
+ * against the query's. Each bigram sets one bit, so the bits the two signatures
+ * have in common, plus the bigrams that landed on a bit already set, bound the
+ * number of bigrams the words can share. Candidates whose bound can not score
+ * enough are skipped for the price of a few bit counts.
+ */
+public class BigramIndex {
+
+	// the number of bigrams in each word
+	private final int[] wordLengths;
+	// the sorted bigrams of every word, stored one after the other
+	private final int[] wordBigrams;
+	// where each word's bigrams start in wordBigrams (with one extra entry for the end)
+	private final int[] wordOffsets;
+	// the bigram signature of every word, SIGNATURE_LONGS longs each
+	private final long[] wordSignatures;
+	// the number of bigrams of each word that landed on a bit of its signature that was already set
+	private final int[] wordCollisions;
+
+	// the number of longs in a bigram signature
+	private static final int SIGNATURE_LONGS = 2;
+
+	// open addressing table from bigram to distinct bigram id + 1 (0 = empty)
+	private final int[] table;
+	// the bigram for each distinct bigram id
+	private final int[] keys;
+	// where each distinct bigram's postings start (with one extra entry for the end)
+	private final int[] postingOffsets;
+	// the word ids in each posting list, sorted by word length and then id
+	private final int[] postingWords;
+	// the length of each word in the posting lists, for binary searching the length window
+	private final int[] postingLengths;
+
+	/**
+	 * Builds the index for a list of words. The position of each word in the
+	 * list is used as its id.
+	 *
+	 * @param words	The profiles of the words to index.
+	 */
+	public BigramIndex(WordProfile[] words) {
+
+		// split every word into sorted bigrams
+		wordLengths = new int[words.length];
+		wordOffsets = new int[words.length + 1];
+		int[][] bigrams = new int[words.length][];
+		for (int w = 0; w < words.length; w++) {
+			bigrams[w] = words[w].getBigrams();
+			wordLengths[w] = bigrams[w].length;
+			wordOffsets[w + 1] = wordOffsets[w] + bigrams[w].length;
+		}
+		wordBigrams = new int[wordOffsets[words.length]];
+		wordSignatures = new long[SIGNATURE_LONGS * words.length];
+		wordCollisions = new int[words.length];
+		for (int w = 0; w < words.length; w++) {
+			System.arraycopy(bigrams[w], 0, wordBigrams, wordOffsets[w], bigrams[w].length);
+			wordCollisions[w] = sign(bigrams[w], wordSignatures, SIGNATURE_LONGS * w);
+		}
+
+		// give every distinct bigram an id and count the words it appears in
+		table = new int[tableSize(wordBigrams.length)];
+		int[] distinct = new int[16];
+		int[] frequencies = new int[16];
+		int size = 0;
+		for (int w = 0; w < words.length; w++) {
+			for (int k = wordOffsets[w]; k < wordOffsets[w + 1]; k++) {
+				// only count each bigram once per word
+				if (k > wordOffsets[w] && wordBigrams[k] == wordBigrams[k - 1])
+					continue;
+				int slot = find(wordBigrams[k], distinct);
+				if (table[slot] == 0) {
+					if (size == distinct.length) {
+						distinct = Arrays.copyOf(distinct, size * 2);
+						frequencies = Arrays.copyOf(frequencies, size * 2);
+					}
+					distinct[size] = wordBigrams[k];
+					table[slot] = ++size;
+				}
+				frequencies[table[slot] - 1]++;
+			}
+		}
+		keys = Arrays.copyOf(distinct, size);
+
+		// lay out the posting lists
+		postingOffsets = new int[size + 1];
+		for (int b = 0; b < size; b++)
+			postingOffsets[b + 1] = postingOffsets[b] + frequencies[b];
+		postingWords = new int[postingOffsets[size]];
+		postingLengths = new int[postingOffsets[size]];
+
+		// fill them in order of word length so a length window is a contiguous range
+		Integer[] byLength = new Integer[words.length];
+		for (int w = 0; w < words.length; w++)
+			byLength[w] = w;
+		Arrays.sort(byLength, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (wordLengths[a] != wordLengths[b])
+					return wordLengths[a] < wordLengths[b] ? -1 : 1;
+				return a.compareTo(b);
+			}
+		});
+		int[] next = Arrays.copyOf(postingOffsets, size);
+		for (int w : byLength) {
+			for (int k = wordOffsets[w]; k < wordOffsets[w + 1]; k++) {
+				if (k > wordOffsets[w] && wordBigrams[k] == wordBigrams[k - 1])
+					continue;
+				int b = table[find(wordBigrams[k], keys)] - 1;
+				postingWords[next[b]] = w;
+				postingLengths[next[b]] = wordLengths[w];
+				next[b]++;
+			}
+		}
+	}
+
+	/**
+	 * @return		The number of words in the index.
+	 */
+	public int size() {
+		return wordLengths.length;
+	}
+
+	/**
+	 * @return		A rough estimate of the memory used by the index, in bytes.
+	 */
+	public long getMemoryEstimate() {
+		long ints = (long) wordLengths.length + wordBigrams.length + wordOffsets.length + wordCollisions.length
+				+ table.length + keys.length + postingOffsets.length + postingWords.length + postingLengths.length;
+		return 4 * ints + 8 * wordSignatures.length + 10 * 16;
+	}
+
+	/**
+	 * Sets one bit of a signature for each bigram.
+	 *
+	 * @param bigrams		The sorted bigrams of a word.
+	 * @param signature		Where to store the signature (cleared first).
+	 * @param offset		The position of the signature's first long.
+	 * @return				The number of bigrams whose bit was already set.
+	 */
+	static int sign(int[] bigrams, long[] signature, int offset) {
+		for (int i = 0; i < SIGNATURE_LONGS; i++)
+			signature[offset + i] = 0L;
+		int collisions = 0;
+		for (int k = 0; k < bigrams.length; k++) {
+			int bit = (bigrams[k] * 0x9E3779B9) >>> 25;
+			long mask = 1L << bit;
+			if ((signature[offset + (bit >>> 6)] & mask) != 0)
+				collisions++;
+			signature[offset + (bit >>> 6)] |= mask;
+		}
+		return collisions;
+	}
+
+	/**
+	 * Creates a searcher for the index. A searcher keeps scratch space between
+	 * queries, so each thread should use its own.
+	 *
+	 * @return		A new searcher.
+	 */
+	public Searcher newSearcher() {
+		return new Searcher();
+	}
+
+	// the smallest power of two table size that keeps the load at or below one half
+	private static int tableSize(int entries) {
+		int size = 16;
+		while (size < entries * 2)
+			size <<= 1;
+		return size;
+	}
+
+	// finds the slot holding a bigram, or the empty slot where it belongs
+	private int find(int bigram, int[] ids) {
+		int mask = table.length - 1;
+		int hash = bigram * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while (table[slot] != 0 && ids[table[slot] - 1] != bigram)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	// the id of a bigram, or -1 if no word contains it
+	private int getId(int bigram) {
+		return table[find(bigram, keys)] - 1;
+	}
+
+	/**
+	 * Finds the most similar word in the index for query words.
+	 */
+	public class Searcher {
+
+		// the query that last saw each word, so candidates are only scored once
+		private final int[] seen = new int[wordLengths.length];
+		// the number of queries that have been run
+		private int query = 0;
+		// the similarity of the last best match
+		private double score = 0.0;
+		// the number of candidates that have been scored exactly
+		private long scored = 0;
+		// the number of candidates skipped because of their signatures
+		private long rejected = 0;
+		// the signature of the current query and the number of its bigrams that collided
+		private final long[] signature = new long[SIGNATURE_LONGS];
+		private int collisions;
+
+		// the distinct bigrams of the current query, their counts and the order to probe them in
+		private int[] ids = new int[16];
+		private int[] counts = new int[16];
+		private long[] order = new long[16];
+		private int distinct = 0;
+		// the window of word lengths that could score enough, and the bigrams they must share
+		private int minLength;
+		private int maxLength;
+		private int required;
+
+		// the words found by the last call to findAll
+		private int[] resultIds = new int[16];
+		private double[] resultScores = new double[16];
+		private int results = 0;
+
+		private Searcher() {
+		}
+
+		/**
+		 * Finds the word with the highest Dice coefficient, ignoring words that
+		 * cannot score more than the minimum. If several words have the same score,
+		 * the one with the lowest id is returned.
+		 *
+		 * @param word		The word to search for.
+		 * @param minScore	The score a word must exceed to be returned.
+		 * @return			The id of the best word, or -1 if no word scored more than minScore.
+		 */
+		public int findBest(String word, double minScore) {
+			return findBest(new WordProfile(word), minScore);
+		}
+
+		/**
+		 * Finds the word with the highest Dice coefficient, reusing the
+		 * bigrams already computed for the query word.
+		 *
+		 * @param word		The profile of the word to search for.
+		 * @param minScore	The score a word must exceed to be returned.
+		 * @return			The id of the best word, or -1 if no word scored more than minScore.
+		 */
+		public int findBest(WordProfile word, double minScore) {
+			score = 0.0;
+			int[] bigrams = word.getBigrams();
+			int n = bigrams.length;
+			if (!prepare(bigrams, minScore))
+				return -1;
+
+			// a word sharing no bigram in the first n-required+1 can not score enough
+			int probe = probe(n);
+			int best = -1;
+			double bestScore = 0.0;
+			for (int d = 0; d < distinct && probe > 0; d++) {
+				int id = ids[(int) order[d]];
+				probe -= counts[(int) order[d]];
+				if (id < 0)
+					continue;
+
+				// skip straight to the words of the right lengths
+				int end = postingOffsets[id + 1];
+				for (int p = lowerBound(postingOffsets[id], end, minLength); p < end && postingLengths[p] <= maxLength; p++) {
+					int w = postingWords[p];
+					if (seen[w] == query)
+						continue;
+					seen[w] = query;
+
+					// skip candidates too short or long to beat the best so far
+					int m = wordLengths[w];
+					if ((double)(2*Math.min(n, m))/(n+m) < bestScore)
+						continue;
+					// and those whose signatures do not share enough bits to beat it or exceed the minimum
+					double bound = (double)(2*maxShared(n, w))/(n+m);
+					if (bound < bestScore || bound <= minScore) {
+						rejected++;
+						continue;
+					}
+
+					// score the candidate exactly, in the same way as Dice.compare
+					scored++;
+					int matches = 2 * shared(bigrams, w);
+					double value = (double)matches/(n+m);
+					if (value > bestScore || (value == bestScore && w < best)) {
+						bestScore = value;
+						best = w;
+					}
+				}
+			}
+
+			if (best < 0 || bestScore <= minScore)
+				return -1;
+			score = bestScore;
+			return best;
+		}
+
+		/**
+		 * Finds the first word with exactly the same bigrams as the query, which
+		 * is the word findBest would return if any word scored a perfect 1.0.
+		 * Only the words with the same number of bigrams in the posting list of
+		 * the query's rarest bigram need to be checked.
+		 *
+		 * @param word		The profile of the word to search for.
+		 * @return			The lowest id of a word with the same bigrams, or -1 if there is none.
+		 */
+		public int findPerfect(WordProfile word) {
+			score = 0.0;
+			int[] bigrams = word.getBigrams();
+			int n = bigrams.length;
+			if (n == 0)
+				return -1;
+
+			// every word with the same bigrams contains the rarest one
+			int rarest = -1;
+			int fewest = Integer.MAX_VALUE;
+			for (int k = 0; k < n; k++) {
+				int id = getId(bigrams[k]);
+				if (id < 0)
+					return -1;
+				int frequency = postingOffsets[id + 1] - postingOffsets[id];
+				if (frequency < fewest) {
+					fewest = frequency;
+					rarest = id;
+				}
+			}
+
+			// postings are sorted by length and then id, so the first one found is the lowest id
+			int end = postingOffsets[rarest + 1];
+			sign(bigrams, signature, 0);
+			for (int p = lowerBound(postingOffsets[rarest], end, n); p < end && postingLengths[p] == n; p++) {
+				int w = postingWords[p];
+				if (!sameSignature(w)) {
+					rejected++;
+					continue;
+				}
+				scored++;
+				if (shared(bigrams, w) == n) {
+					score = 1.0;
+					return w;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Finds every word with a Dice coefficient higher than the minimum, in no
+		 * particular order. The words and their scores are read with getResultId
+		 * and getResultScore.
+		 *
+		 * @param word		The profile of the word to search for.
+		 * @param minScore	The score a word must exceed to be returned.
+		 * @return			The number of words found.
+		 */
+		public int findAll(WordProfile word, double minScore) {
+			results = 0;
+			int[] bigrams = word.getBigrams();
+			int n = bigrams.length;
+			if (!prepare(bigrams, minScore))
+				return 0;
+
+			int probe = probe(n);
+			for (int d = 0; d < distinct && probe > 0; d++) {
+				int id = ids[(int) order[d]];
+				probe -= counts[(int) order[d]];
+				if (id < 0)
+					continue;
+
+				int end = postingOffsets[id + 1];
+				for (int p = lowerBound(postingOffsets[id], end, minLength); p < end && postingLengths[p] <= maxLength; p++) {
+					int w = postingWords[p];
+					if (seen[w] == query)
+						continue;
+					seen[w] = query;
+
+					int m = wordLengths[w];
+					if ((double)(2*maxShared(n, w))/(n+m) <= minScore) {
+						rejected++;
+						continue;
+					}
+					scored++;
+					int matches = 2 * shared(bigrams, w);
+					double value = (double)matches/(n+m);
+					if (value > minScore) {
+						if (results == resultIds.length) {
+							resultIds = Arrays.copyOf(resultIds, results * 2);
+							resultScores = Arrays.copyOf(resultScores, results * 2);
+						}
+						resultIds[results] = w;
+						resultScores[results] = value;
+						results++;
+					}
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * @param i		The position of a result of the last call to findAll.
+		 * @return		The id of the word.
+		 */
+		public int getResultId(int i) {
+			return resultIds[i];
+		}
+
+		/**
+		 * @param i		The position of a result of the last call to findAll.
+		 * @return		The similarity of the word.
+		 */
+		public double getResultScore(int i) {
+			return resultScores[i];
+		}
+
+		// starts a new query, working out the length window and the order to probe the
+		// query's distinct bigrams in (rarest first), or returns false if it has no bigrams
+		private boolean prepare(int[] bigrams, double minScore) {
+			if (++query == 0) {
+				Arrays.fill(seen, 0);
+				query = 1;
+			}
+			int n = bigrams.length;
+			if (n == 0)
+				return false;
+			collisions = sign(bigrams, signature, 0);
+
+			// the range of word lengths that could score more than minScore
+			minLength = 1;
+			maxLength = Integer.MAX_VALUE;
+			required = 0;
+			if (minScore > 0.0) {
+				minLength = Math.max(1, (int) Math.floor(minScore * n / (2.0 - minScore)));
+				double max = Math.ceil(n * (2.0 - minScore) / minScore);
+				if (max < Integer.MAX_VALUE)
+					maxLength = (int) max;
+				// the fewest bigrams any of these words has to share with the query
+				required = (int) Math.floor(minScore * (n + minLength) / 2.0);
+			}
+
+			// order the distinct query bigrams from rarest to most common
+			if (ids.length < n) {
+				ids = new int[n];
+				counts = new int[n];
+				order = new long[n];
+			}
+			distinct = 0;
+			for (int k = 0; k < n; k++) {
+				int count = 1;
+				while (k + 1 < n && bigrams[k + 1] == bigrams[k]) {
+					k++;
+					count++;
+				}
+				int id = getId(bigrams[k]);
+				int frequency = id < 0 ? 0 : postingOffsets[id + 1] - postingOffsets[id];
+				ids[distinct] = id;
+				counts[distinct] = count;
+				order[distinct] = ((long) frequency << 32) | distinct;
+				distinct++;
+			}
+			Arrays.sort(order, 0, distinct);
+			return true;
+		}
+
+		// the number of the rarest query bigrams that have to be probed for candidates
+		private int probe(int n) {
+			return n - required + 1;
+		}
+
+		/**
+		 * @return		The similarity of the word returned by the last call to findBest.
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * @return		The number of candidate words this searcher has scored exactly.
+		 */
+		public long getScored() {
+			return scored;
+		}
+
+		/**
+		 * @return		The number of candidate words skipped because of their signatures.
+		 */
+		public long getRejected() {
+			return rejected;
+		}
+
+		// the most bigrams the query can share with a word, judging by their signatures
+		private int maxShared(int n, int w) {
+			int offset = SIGNATURE_LONGS * w;
+			int common = 0;
+			for (int i = 0; i < SIGNATURE_LONGS; i++)
+				common += Long.bitCount(signature[i] & wordSignatures[offset + i]);
+			// bigrams sharing a bit with another bigram of the same word may match without adding a bit
+			return Math.min(Math.min(n, wordLengths[w]), common + Math.min(collisions, wordCollisions[w]));
+		}
+
+		// whether a word has the same signature as the query
+		private boolean sameSignature(int w) {
+			int offset = SIGNATURE_LONGS * w;
+			for (int i = 0; i < SIGNATURE_LONGS; i++) {
+				if (signature[i] != wordSignatures[offset + i])
+					return false;
+			}
+			return true;
+		}
+
+		// the first posting in a range whose word has at least the given length
+		private int lowerBound(int from, int to, int length) {
+			while (from < to) {
+				int mid = (from + to) >>> 1;
+				if (postingLengths[mid] < length)
+					from = mid + 1;
+				else
+					to = mid;
+			}
+			return from;
+		}
+
+		// counts the bigrams shared by a query and a word, with duplicates
+		private int shared(int[] bigrams, int w) {
+			int matches = 0, i = 0, j = wordOffsets[w];
+			int end = wordOffsets[w + 1];
+			while (i < bigrams.length && j < end) {
+				if (bigrams[i] == wordBigrams[j]) {
+					matches++;
+					i++;
+					j++;
+				}
+				else if (bigrams[i] < wordBigrams[j])
+					i++;
+				else
+					j++;
+			}
+			return matches;
+		}
+
+	}
+
+}
@@ -60,4 +60,125 @@ public class Dice extends StringCompare {
             return (double)matches/(n+m);
         }
         
+        /**
+         * Compares two profiled words by merging their cached bigrams,
+         * without allocating or sorting.
+         */
+        @Override
+        public double compare(WordProfile word1, WordProfile word2) {
+            // Verifying the input:
+            String str1 = word1.getWord();
+            String str2 = word2.getWord();
+            if (str1 == null || str2 == null)
+                    return 0;
+            // Quick check to catch identical objects:
+            if (str1 == str2)
+                    return 1;
+            // avoid exception for single character searches
+            if (str1.length() < 2 || str2.length() < 2)
+                return 0;
+            return compare(word1.getBigrams(), word2.getBigrams());
+        }
+        
+        /**
+         * Compares two strings, giving up early if the shorter one does
+         * not have enough bigrams to reach the minimum score.
+         */
+        @Override
+        public double compareAtLeast(String str1, String str2, double minScore) {
+            if (str1 != null && str2 != null && str1 != str2 && str1.length() >= 2 && str2.length() >= 2
+                    && maxScore(str1.length()-1, str2.length()-1) < minScore)
+                return BELOW_MINIMUM;
+            return super.compareAtLeast(str1, str2, minScore);
+        }
+        
+        /**
+         * Compares two profiled words, giving up as soon as the bigrams
+         * left to merge can no longer reach the minimum score.
+         */
+        @Override
+        public double compareAtLeast(WordProfile word1, WordProfile word2, double minScore) {
+            String str1 = word1.getWord();
+            String str2 = word2.getWord();
+            if (str1 == null || str2 == null || str1 == str2 || str1.length() < 2 || str2.length() < 2)
+                return super.compareAtLeast(word1, word2, minScore);
+            
+            final int[] sPairs = word1.getBigrams();
+            final int[] tPairs = word2.getBigrams();
+            final int n = sPairs.length;
+            final int m = tPairs.length;
+            // the score can be no higher than if every bigram of the shorter string matched
+            if (maxScore(n, m) < minScore)
+                return BELOW_MINIMUM;
+            
+            // Count the matches, stopping once the rest can not make up the difference:
+            int matches = 0, i = 0, j = 0;
+            while (i < n && j < m) {
+                if (sPairs[i] == tPairs[j]) {
+                    matches += 2;
+                    i++;
+                    j++;
+                }
+                else {
+                    if (sPairs[i] < tPairs[j])
+                        i++;
+                    else
+                        j++;
+                    if ((double)(matches + 2*Math.min(n-i, m-j))/(n+m) < minScore)
+                        return BELOW_MINIMUM;
+                }
+            }
+            double value = (double)matches/(n+m);
+            return value >= minScore ? value : BELOW_MINIMUM;
+        }
+        
+        // the highest Dice coefficient two strings with n and m bigrams can have
+        private static double maxScore(int n, int m) {
+            return (double)(2*Math.min(n, m))/(n+m);
+        }
+        
+        /**
+         * Computes the Dice coefficient of two sorted bigram lists.
+         * 
+         * @param sPairs	The sorted bigrams of the first string.
+         * @param tPairs	The sorted bigrams of the second string.
+         * @return		The Dice coefficient of the two lists.
+         */
+        static double compare(int[] sPairs, int[] tPairs) {
+            final int n = sPairs.length;
+            final int m = tPairs.length;
+            // Count the matches:
+            int matches = 0, i = 0, j = 0;
+            while (i < n && j < m) {
+                if (sPairs[i] == tPairs[j]) {
+                    matches += 2;
+                    i++;
+                    j++;
+                }
+                else if (sPairs[i] < tPairs[j])
+                    i++;
+                else
+                    j++;
+            }
+            return (double)matches/(n+m);
+        }
+        
+        /**
+         * Creates the sorted list of bigrams for a string, each bigram
+         * packed into an int in the same way compare does.
+         * 
+         * @param str	The string to split into bigrams.
+         * @return		The sorted bigrams (empty if the string is shorter than 2 characters).
+         */
+        public static int[] getBigrams(String str) {
+            if (str == null || str.length() < 2)
+                return new int[0];
+            final int n = str.length()-1;
+            final int[] pairs = new int[n];
+            for (int i = 0; i < n; i++)
+                pairs[i] = (str.charAt(i) << 16) | str.charAt(i+1);
+            Arrays.sort(pairs);
+            return pairs;
+        }
+        
 }
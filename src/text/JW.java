@@ -7,10 +7,127 @@ public class JW extends StringCompare {
 
 	// the class for the Jaro-Winkler algorithm
 	static JaroWinkler jw = new JaroWinkler();
-	
+
+	// the most leading characters that count towards the prefix bonus
+	private static final int MAX_PREFIX = 6;
+	// the amount the prefix bonus scales by for each shared leading character
+	private static final float PREFIX_SCALE = 0.1f;
+	// allowance for float rounding when comparing a bound with the minimum score
+	private static final double EPSILON = 1e-6;
+
+	// scratch space for the bounded comparison, one per thread
+	private static final ThreadLocal<char[]> scratch = new ThreadLocal<char[]>() {
+		protected char[] initialValue() {
+			return new char[64];
+		}
+	};
+
 	@Override
 	public double compare(String str1, String str2) {
 		return jw.getSimilarity(str1, str2);
 	}
-	
+
+	/**
+	 * A native version of the simmetrics Jaro-Winkler metric, which gives the
+	 * same scores but stops as soon as the lengths of the strings, or the
+	 * number of common characters found within the match window so far,
+	 * show that the minimum score can not be reached.
+	 */
+	@Override
+	public double compareAtLeast(String str1, String str2, double minScore) {
+		final int len1 = str1.length();
+		final int len2 = str2.length();
+		final int shorter = Math.min(len1, len2);
+		final int prefix = getPrefixLength(str1, str2);
+		final double min = minScore - EPSILON;
+
+		// at best every character of the shorter string is common and in order
+		if (maxScore(shorter, len1, len2, prefix) < min)
+			return BELOW_MINIMUM;
+
+		// the characters of each string that are common within the match window
+		final int window = shorter / 2 + 1;
+		char[] buffer = scratch.get();
+		if (buffer.length < 2 * (len1 + len2)) {
+			buffer = new char[2 * (len1 + len2)];
+			scratch.set(buffer);
+		}
+		final int common1 = 0, copy2 = len1, common2 = len1 + len2, copy1 = len1 + 2 * len2;
+
+		// find the characters of string 1 in string 2
+		str2.getChars(0, len2, buffer, copy2);
+		int matches1 = 0;
+		for (int i = 0; i < len1; i++) {
+			char ch = str1.charAt(i);
+			for (int j = Math.max(0, i - window); j < Math.min(i + window, len2); j++) {
+				if (buffer[copy2 + j] == ch) {
+					buffer[common1 + matches1++] = ch;
+					buffer[copy2 + j] = 0;
+					break;
+				}
+			}
+			// give up if matching the rest of string 1 would not be enough
+			if (maxScore(Math.min(shorter, matches1 + len1 - i - 1), len1, len2, prefix) < min)
+				return BELOW_MINIMUM;
+		}
+
+		// find the characters of string 2 in string 1
+		str1.getChars(0, len1, buffer, copy1);
+		int matches2 = 0;
+		for (int i = 0; i < len2; i++) {
+			char ch = str2.charAt(i);
+			for (int j = Math.max(0, i - window); j < Math.min(i + window, len1); j++) {
+				if (buffer[copy1 + j] == ch) {
+					buffer[common2 + matches2++] = ch;
+					buffer[copy1 + j] = 0;
+					break;
+				}
+			}
+			// both strings must end up with the same number of common characters
+			if (maxScore(Math.min(matches1, matches2 + len2 - i - 1), len1, len2, prefix) < min)
+				return BELOW_MINIMUM;
+		}
+
+		// the Jaro similarity, using float arithmetic in the same order as simmetrics
+		float jaro;
+		if (matches1 == 0 || matches1 != matches2) {
+			jaro = 0.0f;
+		} else {
+			int transpositions = 0;
+			for (int i = 0; i < matches1; i++) {
+				if (buffer[common1 + i] != buffer[common2 + i])
+					transpositions++;
+			}
+			transpositions = (int) (transpositions / 2.0f);
+			jaro = ((float) matches1 / (float) len1 + (float) matches2 / (float) len2
+					+ (float) (matches1 - transpositions) / (float) matches1) / 3.0f;
+		}
+
+		double value = jaro + (float) prefix * PREFIX_SCALE * (1.0f - jaro);
+		return value >= minScore ? value : BELOW_MINIMUM;
+	}
+
+	@Override
+	public double compareAtLeast(WordProfile word1, WordProfile word2, double minScore) {
+		return compareAtLeast(word1.getWord(), word2.getWord(), minScore);
+	}
+
+	// the number of leading characters the two strings share, up to MAX_PREFIX
+	private static int getPrefixLength(String str1, String str2) {
+		int n = Math.min(MAX_PREFIX, Math.min(str1.length(), str2.length()));
+		for (int i = 0; i < n; i++) {
+			if (str1.charAt(i) != str2.charAt(i))
+				return i;
+		}
+		return n;
+	}
+
+	// the highest score strings of the given lengths can have with at most the given common characters
+	private static double maxScore(int matches, int len1, int len2, int prefix) {
+		double jaro = 0.0;
+		if (matches > 0)
+			jaro = ((double) matches / len1 + (double) matches / len2 + 1.0) / 3.0;
+		return jaro + prefix * 0.1 * (1.0 - jaro);
+	}
+
 }
@@ -0,0 +1,112 @@
+package text;
+
+import java.util.Arrays;
+
+/**
+ * A MinHash signature over the character trigrams of a set of words. Two
+ * signatures agree in about the same fraction of their positions as the two
+ * sets of trigrams have in common (their Jaccard similarity), so predicates
+ * whose values share no text can be told apart without comparing any words.
+ *
+ * Each trigram is hashed once and falls into one of the signature's positions,
+ * which keeps the smallest hash it receives (one permutation hashing). Positions
+ * that receive no trigram borrow the value of the next position that did.
+ */
+public class MinHash {
+
+	// spreads the values borrowed by empty positions, so they differ from the position they copy
+	private static final int ROTATION = 0x9E3779B9;
+
+	// the smallest hash seen in each position (Integer.MAX_VALUE = none yet)
+	private final int[] mins;
+	// the number of trigrams added
+	private long added = 0;
+
+	/**
+	 * @param size		The number of positions in the signature.
+	 */
+	public MinHash(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("Signature size must be at least 1: "+size);
+		mins = new int[size];
+		Arrays.fill(mins, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Adds the trigrams of a word, with a space before and after it so that
+	 * short words and the ends of words are counted as well.
+	 *
+	 * @param word		The word to add.
+	 */
+	public void add(String word) {
+		char a = ' ';
+		char b = word.isEmpty() ? ' ' : word.charAt(0);
+		for (int i = 1; i <= word.length(); i++) {
+			char c = i < word.length() ? word.charAt(i) : ' ';
+			addTrigram(a, b, c);
+			a = b;
+			b = c;
+		}
+	}
+
+	// hashes a trigram and keeps it if it is the smallest in its position
+	private void addTrigram(char a, char b, char c) {
+		long h = mix(((long) a << 32) | ((long) b << 16) | c);
+		int position = (int) (((h & 0xFFFFFFFFL) * mins.length) >>> 32);
+		int value = (int) (h >>> 33);
+		if (value < mins[position])
+			mins[position] = value;
+		added++;
+	}
+
+	/**
+	 * @return		The signature of the words added so far.
+	 */
+	public int[] getSignature() {
+		int[] signature = new int[mins.length];
+		if (added == 0) {
+			Arrays.fill(signature, Integer.MAX_VALUE);
+			return signature;
+		}
+		for (int i = 0; i < mins.length; i++) {
+			// an empty position takes the value of the next position that is not empty
+			int j = i;
+			int distance = 0;
+			while (mins[j] == Integer.MAX_VALUE) {
+				j = (j + 1) % mins.length;
+				distance++;
+			}
+			signature[i] = mins[j] + distance * ROTATION;
+		}
+		return signature;
+	}
+
+	/**
+	 * Estimates how much of their text two sets of words have in common.
+	 *
+	 * @param signature1	The signature of the first set of words.
+	 * @param signature2	The signature of the second set of words (the same size).
+	 * @return				The fraction of positions the signatures agree in, within [0.0,1.0].
+	 */
+	public static double similarity(int[] signature1, int[] signature2) {
+		if (signature1.length != signature2.length)
+			throw new IllegalArgumentException("Signatures differ in size: "+signature1.length+" and "+signature2.length);
+		int same = 0;
+		for (int i = 0; i < signature1.length; i++) {
+			if (signature1[i] == signature2[i])
+				same++;
+		}
+		return (double) same / signature1.length;
+	}
+
+	// spreads the bits of a key (the finalizer of MurmurHash3)
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
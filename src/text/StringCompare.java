@@ -3,6 +3,9 @@ package text;
 // abstract class that will compare two strings
 public abstract class StringCompare {
 
+	// returned by compareAtLeast when two strings can not be similar enough
+	public static final double BELOW_MINIMUM = -1.0;
+
 	/**
 	 * Compares the similarity of two strings.
 	 * 
@@ -12,4 +15,64 @@ public abstract class StringCompare {
 	 */
 	public abstract double compare(String str1, String str2);
 	
+	/**
+	 * Compares the similarity of two words whose profiles were built ahead of time.
+	 * Metrics that can reuse work between comparisons override this, by default
+	 * the words themselves are compared.
+	 * 
+	 * @param word1	The profile of the first word to use in the comparison.
+	 * @param word2	The profile of the second word to use in the comparison.
+	 * @return		The same value as compare(word1.getWord(), word2.getWord()).
+	 */
+	public double compare(WordProfile word1, WordProfile word2) {
+		return compare(word1.getWord(), word2.getWord());
+	}
+	
+	/**
+	 * Compares two strings, but only if they may be at least as similar as the
+	 * minimum score. Metrics override this to give up as soon as the score is
+	 * known to be too low, by default the full comparison is run.
+	 * 
+	 * @param str1		The first string to use in the comparison.
+	 * @param str2		The second string to use in the comparison.
+	 * @param minScore	The lowest score that is of interest.
+	 * @return			The same value as compare(str1, str2) if it is at least minScore, otherwise BELOW_MINIMUM.
+	 */
+	public double compareAtLeast(String str1, String str2, double minScore) {
+		double value = compare(str1, str2);
+		return value >= minScore ? value : BELOW_MINIMUM;
+	}
+	
+	/**
+	 * Compares two profiled words, but only if they may be at least as similar
+	 * as the minimum score.
+	 * 
+	 * @param word1		The profile of the first word to use in the comparison.
+	 * @param word2		The profile of the second word to use in the comparison.
+	 * @param minScore	The lowest score that is of interest.
+	 * @return			The same value as compare(word1, word2) if it is at least minScore, otherwise BELOW_MINIMUM.
+	 */
+	public double compareAtLeast(WordProfile word1, WordProfile word2, double minScore) {
+		double value = compare(word1, word2);
+		return value >= minScore ? value : BELOW_MINIMUM;
+	}
+	
+	/**
+	 * The version of the metric, which must change whenever a change to the
+	 * metric changes any of its scores, so that scores saved by older
+	 * versions are not reused.
+	 * 
+	 * @return		The version of the metric.
+	 */
+	public int getVersion() {
+		return 1;
+	}
+	
+	/**
+	 * @return		A name identifying the metric and its version, for keying saved scores.
+	 */
+	public String getIdentity() {
+		return getClass().getName() + "/" + getVersion();
+	}
+	
 }
@@ -0,0 +1,63 @@
+package text;
+
+/**
+ * A word together with the parts of it that string similarity metrics reuse
+ * between comparisons, such as its sorted bigrams. Profiles are computed once
+ * per distinct word, so comparing two profiles does not need to allocate.
+ */
+public class WordProfile {
+
+	// the word being profiled
+	private final String word;
+	// the id of the word in the dictionary that made the profile (-1 = none)
+	private final int id;
+	// the sorted bigrams of the word (computed when first needed)
+	private volatile int[] bigrams = null;
+
+	public WordProfile(String word) {
+		this(word, -1);
+	}
+
+	/**
+	 * @param word		The word being profiled.
+	 * @param id		The id of the word in the dictionary that made the profile.
+	 */
+	public WordProfile(String word, int id) {
+		this.word = word;
+		this.id = id;
+	}
+
+	/**
+	 * @return		The word being profiled.
+	 */
+	public String getWord() {
+		return word;
+	}
+
+	/**
+	 * @return		The id of the word in the dictionary that made the profile, or -1 if none did.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Retrieves the sorted bigrams of the word, packed as in Dice.
+	 * The array is shared and must not be modified.
+	 *
+	 * @return		The sorted bigrams.
+	 */
+	public int[] getBigrams() {
+		int[] pairs = bigrams;
+		if (pairs == null) {
+			pairs = Dice.getBigrams(word);
+			bigrams = pairs;
+		}
+		return pairs;
+	}
+
+	public String toString() {
+		return word;
+	}
+
+}
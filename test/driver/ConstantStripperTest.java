@@ -0,0 +1,133 @@
+package driver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Checks that the constants found are those found by splitting each line with
+ * split("\\s+"), as Predicate.stripConstants used to.
+ */
+public class ConstantStripperTest {
+
+	@Test
+	public void leadingWhitespaceGivesAnEmptyToken() {
+		// " x" has two tokens, "" and "x", so "" is a candidate that appears in every line
+		Map<String, Integer> words = new TreeMap<String, Integer>();
+		words.put(" x", 1);
+		words.put(" y", 1);
+		words.put("\tz", 1);
+		assertEquals(Arrays.asList(""), constants(words, 0.9));
+		// and an empty constant cuts nothing out
+		assertEquals(words, ConstantStripper.strip(words, 0.9, false));
+	}
+
+	@Test
+	public void repeatedTokenIsReportedEachTime() {
+		// the first line holds "tag" twice, so it was a candidate twice and was reported twice
+		Map<String, Integer> words = new LinkedHashMap<String, Integer>();
+		words.put("tag x tag", 1);
+		words.put("tag y", 1);
+		words.put("z tag", 1);
+		assertEquals(Arrays.asList("tag", "tag"), constants(words, 0.9));
+		assertEquals(splitConstants(words, 0.9), constants(words, 0.9));
+		Map<String, Integer> stripped = new TreeMap<String, Integer>();
+		stripped.put(" x ", 1);
+		stripped.put(" y", 1);
+		stripped.put("z ", 1);
+		assertEquals(stripped, ConstantStripper.strip(words, 0.9, false));
+	}
+
+	@Test
+	public void constantsMatchSplit() {
+		Random random = new Random(17);
+		for (int round = 0; round < 2000; round++) {
+			Map<String, Integer> words = new TreeMap<String, Integer>();
+			int lines = 1 + random.nextInt(20);
+			for (int i = 0; i < lines; i++)
+				words.put(line(random), 1 + random.nextInt(3));
+			for (double constantValue : new double[] { 0.0, 0.5, 0.9 })
+				assertEquals(words+" > "+constantValue, splitConstants(words, constantValue), constants(words, constantValue));
+		}
+	}
+
+	// the constants ConstantStripper reports, in the order it reports them
+	private static List<String> constants(Map<String, Integer> words, double constantValue) {
+		PrintStream out = System.out;
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed));
+		try {
+			ConstantStripper.strip(words, constantValue, true);
+		} finally {
+			System.setOut(out);
+		}
+		List<String> constants = new ArrayList<String>();
+		for (String line : printed.toString().split("\n", -1)) {
+			if (line.startsWith("Removing "))
+				constants.add(line.substring("Removing ".length()));
+		}
+		return constants;
+	}
+
+	// the constants found the way stripConstants used to find them, following its loop
+	private static List<String> splitConstants(Map<String, Integer> words, double constantValue) {
+		List<String> toRemove = null;
+		List<Integer> toRemoveCount = null;
+		int count = 0;
+		for (String line : words.keySet()) {
+			List<String> tokens = new ArrayList<String>(Arrays.asList(line.split("\\s+")));
+			if (tokens.size() > 1) {
+				if (toRemove == null) {
+					toRemove = new ArrayList<String>();
+					toRemoveCount = new ArrayList<Integer>();
+					for (String token : tokens) {
+						toRemove.add(token);
+						toRemoveCount.add(1);
+					}
+				} else {
+					for (int i = 0; i < toRemove.size(); i++) {
+						String removeItem = toRemove.get(i);
+						if (tokens.contains(removeItem))
+							toRemoveCount.set(i, toRemoveCount.get(i) + 1);
+					}
+				}
+				count++;
+			}
+		}
+		List<String> newRemove = new ArrayList<String>();
+		if (toRemove == null)
+			return newRemove;
+		for (int i = 0; i < toRemove.size(); i++) {
+			if (toRemoveCount.get(i) > (count * constantValue))
+				newRemove.add(toRemove.get(i));
+		}
+		return newRemove;
+	}
+
+	// a few tokens from a small vocabulary, sometimes with whitespace at either end or blank
+	private static String line(Random random) {
+		StringBuilder line = new StringBuilder();
+		if (random.nextInt(4) == 0)
+			line.append(random.nextBoolean() ? " " : "\t ");
+		int tokens = random.nextInt(4);
+		for (int t = 0; t < tokens; t++) {
+			if (t > 0)
+				line.append(random.nextInt(5) == 0 ? "  " : " ");
+			line.append("tag").append(random.nextInt(4));
+		}
+		if (random.nextInt(4) == 0)
+			line.append(' ');
+		return line.toString();
+	}
+
+}
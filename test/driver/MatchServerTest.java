@@ -0,0 +1,114 @@
+package driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import kldivergence.KLDivergence;
+import kldivergence.PredicateFixture;
+import kldivergence.Results;
+import text.Dice;
+import text.JW;
+
+/**
+ * Checks that the answers of a server, with its default settings and with
+ * settings given in the requests, are those of plain runs with the same
+ * settings.
+ */
+public class MatchServerTest {
+
+	private static final int LOCALS = 3;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void answersMatchPlainRuns() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(20), LOCALS, 8, 120);
+		MatchServer server = new MatchServer(2, Double.NaN);
+		Map<Integer, String[]> answers;
+		try {
+			server.loadCorpus(fixture.getRemoteDirectory().getPath());
+			StringBuilder requests = new StringBuilder();
+			for (int i = 0; i < LOCALS; i++)
+				requests.append("MATCH ").append(local(fixture, i)).append('\n');
+			for (int i = 0; i < LOCALS; i++)
+				requests.append("MATCH ").append(local(fixture, i)).append(" metric=jw limit=40 required=2 top=3 normalize=false\n");
+			requests.append("QUIT\n");
+			answers = serve(server, requests.toString());
+		} finally {
+			server.shutdown();
+		}
+		assertEquals(2 * LOCALS, answers.size());
+
+		// the server's defaults are those of Driver
+		KLDivergence defaults = new KLDivergence(new Dice());
+		defaults.setLimit(500);
+		defaults.setStartingThreshold(0.81);
+		defaults.setValidRequired(0);
+		KLDivergence settings = new KLDivergence(new JW());
+		settings.setLimit(40);
+		settings.setStartingThreshold(0.81);
+		settings.setValidRequired(2);
+		settings.setResultsCapacity(3);
+		fixture.run(defaults);
+		fixture.run(settings);
+		for (int i = 0; i < LOCALS; i++) {
+			Results results = defaults.getResults().get(i);
+			results.normalize();
+			checkAnswer(answers.get(1 + i), results);
+			checkAnswer(answers.get(1 + LOCALS + i), settings.getResults().get(i));
+		}
+	}
+
+	// checks the best match, confidence and results of an answer against those of a plain run
+	private static void checkAnswer(String[] answer, Results results) {
+		String status = answer[0];
+		assertTrue(status, status.contains(" best="+results.getTop(1).get(0)+" "));
+		assertTrue(status, status.contains(" confidence="+results.getConfidence()+" "));
+		assertTrue(status, !status.endsWith(" partial"));
+		assertEquals(results.getName(), answer[1]);
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (int i = 2; i < answer.length; i++) {
+			String[] fields = answer[i].split("\t");
+			values.put(fields[0], Double.parseDouble(fields[1]));
+		}
+		assertEquals(PredicateFixture.values(results), values);
+	}
+
+	private static String local(PredicateFixture fixture, int i) {
+		return new File(fixture.getLocalDirectory(), "local.l"+i).getPath();
+	}
+
+	// the lines of each answer to the requests, by request number, without the closing "."
+	private static Map<Integer, String[]> serve(MatchServer server, String requests) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.serve(new ByteArrayInputStream(requests.getBytes(PredicateLoader.UTF8)), out);
+		Map<Integer, String[]> answers = new HashMap<Integer, String[]>();
+		String[] lines = new String(out.toByteArray(), PredicateLoader.UTF8).split("\n");
+		int start = 0;
+		for (int i = 0; i < lines.length; i++) {
+			if (!lines[i].equals("."))
+				continue;
+			String[] answer = new String[i - start];
+			System.arraycopy(lines, start, answer, 0, answer.length);
+			assertTrue(answer[0], answer[0].startsWith("OK "));
+			answers.put(Integer.parseInt(answer[0].split(" ")[1]), answer);
+			start = i + 1;
+		}
+		return answers;
+	}
+
+}
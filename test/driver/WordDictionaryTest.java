@@ -0,0 +1,94 @@
+package driver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import text.WordProfile;
+
+/**
+ * Checks that words keep their profiles and ids while they are held, when
+ * other threads add words and let theirs be freed at the same time.
+ */
+public class WordDictionaryTest {
+
+	@Test
+	public void heldWordsKeepTheirProfiles() {
+		WordDictionary dictionary = new WordDictionary();
+		WordProfile held = dictionary.add("held");
+		for (int i = 0; i < 100000; i++)
+			dictionary.add("dropped "+i);
+		System.gc();
+		assertSame(held, dictionary.add("held"));
+		assertSame(held, dictionary.getProfile(held.getId()));
+		assertEquals(held.getId(), dictionary.getId("held"));
+	}
+
+	@Test
+	public void concurrentAddsAndFrees() throws Exception {
+		final WordDictionary dictionary = new WordDictionary();
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads+1);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < threads; t++) {
+				final int thread = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() {
+						stress(dictionary, new Random(thread));
+						return null;
+					}
+				}));
+			}
+			// keep freeing the words that were dropped while the others look words up
+			final AtomicBoolean done = new AtomicBoolean();
+			Future<Void> collector = executor.submit(new Callable<Void>() {
+				public Void call() {
+					while (!done.get())
+						System.gc();
+					return null;
+				}
+			});
+			try {
+				for (Future<Void> future : futures)
+					future.get();
+			} finally {
+				done.set(true);
+			}
+			collector.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// adds words from a small shared vocabulary, holding some and dropping the rest, so
+	// that words are freed and their ids given to other words while they are looked up
+	private static void stress(WordDictionary dictionary, Random random) {
+		WordProfile[] held = new WordProfile[64];
+		for (int i = 0; i < 200000; i++) {
+			String word = "word "+random.nextInt(2000);
+			WordProfile profile = dictionary.add(word);
+			assertEquals(word, profile.getWord());
+			int slot = random.nextInt(held.length);
+			if (random.nextBoolean())
+				held[slot] = profile;
+			// a held word is never given another profile or id
+			WordProfile kept = held[random.nextInt(held.length)];
+			if (kept != null) {
+				assertSame(kept, dictionary.add(kept.getWord()));
+				assertSame(kept, dictionary.getProfile(kept.getId()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,105 @@
+package kldivergence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import text.JW;
+import text.StringCompare;
+
+/**
+ * Checks deadlines against plain runs: with time to spare the results are the
+ * same and complete, and once the time runs out the results are flagged as
+ * partial, with a lower confidence, and hold only remote predicates that were
+ * scored in full.
+ */
+public class DeadlineTest {
+
+	private static final int LOCALS = 3;
+	// how long the slowed down metric pauses, in milliseconds
+	private static final long PAUSE = 400;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void timeToSpareMatchesPlain() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(22), LOCALS, 8, 120);
+		String plain = fixture.run(new KLDivergence(new JW()));
+		KLDivergence kld = new KLDivergence(new JW());
+		kld.setDeadline(60000);
+		kld.setRunDeadline(600000);
+		assertEquals(plain, fixture.run(kld));
+		for (Results results : kld.getResults()) {
+			assertFalse(results.isPartial());
+			assertEquals(1.0, results.getConfidence(), 0.0);
+		}
+	}
+
+	@Test
+	public void expiredDeadlineGivesPartialResults() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(22), 1, 8, 120);
+		// with one threshold pass, every remote predicate scored in time is scored at the same threshold
+		KLDivergence plain = new KLDivergence(new JW());
+		plain.setValidRequired(0);
+		fixture.run(plain);
+		PausingCompare counter = new PausingCompare(new JW(), Long.MAX_VALUE);
+		KLDivergence counted = new KLDivergence(counter);
+		counted.setValidRequired(0);
+		counted.setParallelism(1);
+		fixture.run(counted);
+
+		// the time runs out half way through the comparisons
+		KLDivergence kld = new KLDivergence(new PausingCompare(new JW(), counter.comparisons / 2));
+		kld.setValidRequired(0);
+		kld.setParallelism(1);
+		kld.setDeadline(PAUSE / 2);
+		fixture.run(kld);
+
+		Results results = kld.getResults().get(0);
+		assertTrue(results.isPartial());
+		Map<String, Double> all = PredicateFixture.values(plain.getResults().get(0));
+		Map<String, Double> scored = PredicateFixture.values(results);
+		assertTrue(scored.size() > 0 && scored.size() < all.size());
+		assertEquals(0.5 * scored.size() / all.size(), results.getConfidence(), 1e-12);
+		for (Map.Entry<String, Double> entry : scored.entrySet())
+			assertEquals(entry.getKey(), all.get(entry.getKey()), entry.getValue(), 0.0);
+		// the remote predicates sharing the most text are scored first, so the best match was scored in time
+		assertEquals(all.keySet().iterator().next(), scored.keySet().iterator().next());
+	}
+
+	// a metric giving the same scores as another, pausing once after a number of comparisons
+	private static class PausingCompare extends StringCompare {
+
+		private final StringCompare compare;
+		private final long pauseAfter;
+		private long comparisons = 0;
+
+		PausingCompare(StringCompare compare, long pauseAfter) {
+			this.compare = compare;
+			this.pauseAfter = pauseAfter;
+		}
+
+		@Override
+		public double compare(String str1, String str2) {
+			if (++comparisons == pauseAfter) {
+				try {
+					Thread.sleep(PAUSE);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return compare.compare(str1, str2);
+		}
+
+	}
+
+}
@@ -0,0 +1,86 @@
+package kldivergence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import metrics.Metrics;
+import text.JW;
+
+/**
+ * Checks that runs with a divergence store give the results of a plain run,
+ * the first time, when every pair is read back, and after a predicate or a
+ * setting changes, while only scoring the pairs that changed.
+ */
+public class DivergenceStoreTest {
+
+	private static final int LOCALS = 3;
+	private static final int REMOTES = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storedRunsMatchPlain() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.newFolder(), new Random(19), LOCALS, REMOTES, 120);
+		File file = new File(folder.getRoot(), "divergences");
+
+		// the first run scores every pair
+		Metrics metrics = run(fixture, file, 0.75);
+		assertEquals(LOCALS * REMOTES, metrics.getCount("pairsScored"));
+		assertEquals(0, metrics.getCount("pairsReused"));
+
+		// the second reads every pair back
+		metrics = run(fixture, file, 0.75);
+		assertEquals(0, metrics.getCount("pairsScored"));
+		assertEquals(LOCALS * REMOTES, metrics.getCount("pairsReused"));
+
+		// a changed remote predicate is scored again against every local predicate
+		append(new File(fixture.getRemoteDirectory(), "remote.r1"), "changed");
+		metrics = run(fixture, file, 0.75);
+		assertEquals(LOCALS, metrics.getCount("pairsScored"));
+		assertEquals(LOCALS * (REMOTES - 1), metrics.getCount("pairsReused"));
+
+		// and other settings score every pair again, keeping only the pairs of the last run
+		metrics = run(fixture, file, 0.85);
+		assertEquals(LOCALS * REMOTES, metrics.getCount("pairsScored"));
+		metrics = run(fixture, file, 0.85);
+		assertEquals(LOCALS * REMOTES, metrics.getCount("pairsReused"));
+	}
+
+	// runs the fixture with a store and without, checking they agree and that the store keeps the pairs of the run
+	private static Metrics run(PredicateFixture fixture, File file, double thresholdStart) throws IOException {
+		KLDivergence plain = new KLDivergence(new JW());
+		plain.setStartingThreshold(thresholdStart);
+		Metrics metrics = new Metrics();
+		DivergenceStore store = new DivergenceStore(file);
+		store.setMetrics(metrics);
+		KLDivergence stored = new KLDivergence(new JW());
+		stored.setStartingThreshold(thresholdStart);
+		stored.setDivergenceStore(store);
+		assertEquals(fixture.run(plain), fixture.run(stored));
+		store.save();
+		assertEquals(LOCALS * REMOTES, new DivergenceStore(file).getStoredPairs());
+		return metrics;
+	}
+
+	private static void append(File file, String line) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+		try {
+			out.write(line);
+			out.write('\n');
+		} finally {
+			out.close();
+		}
+	}
+
+}
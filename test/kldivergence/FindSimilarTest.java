@@ -0,0 +1,111 @@
+package kldivergence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import text.Dice;
+import text.JW;
+import text.StringCompare;
+import text.WordProfile;
+import driver.Predicate;
+import driver.WordList;
+
+/**
+ * Checks that searching for a block of local words at once, a tile of remote
+ * words at a time, finds exactly the matches and makes exactly the comparisons
+ * that searching for each word on its own does.
+ */
+public class FindSimilarTest {
+
+	private static final double[] MIN_THRESHOLDS = { 0.0, 0.5, 0.8, 0.95 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void jwBlockMatchesSingle() throws IOException {
+		checkBlocks(new JW(), new Random(23));
+	}
+
+	@Test
+	public void diceBlockMatchesSingle() throws IOException {
+		checkBlocks(new Dice(), new Random(24));
+	}
+
+	private void checkBlocks(StringCompare compare, Random random) throws IOException {
+		KLDivergence kld = new KLDivergence(compare);
+		for (int round = 0; round < 10; round++) {
+			// more remote words than a tile, and local words that are often also remote words
+			String[] remoteLines = new String[KLDivergence.REMOTE_TILE * 2 + random.nextInt(KLDivergence.REMOTE_TILE)];
+			for (int i = 0; i < remoteLines.length; i++)
+				remoteLines[i] = word(random);
+			String[] localLines = new String[KLDivergence.LOCAL_TILE + random.nextInt(KLDivergence.LOCAL_TILE)];
+			for (int i = 0; i < localLines.length; i++)
+				localLines[i] = random.nextInt(3) == 0 ? remoteLines[random.nextInt(remoteLines.length)] : word(random);
+			Predicate local = new Predicate(write(localLines));
+			Predicate remote = new Predicate(write(remoteLines));
+			WordList localWords = local.getWordList();
+			WordList remoteWords = remote.getWordList();
+
+			int[] positions = new int[localWords.size()];
+			WordProfile[] block = new WordProfile[positions.length];
+			int[] exacts = new int[positions.length];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = i;
+				block[i] = localWords.getProfile(i);
+				exacts[i] = remoteWords.indexOfId(localWords.getId(i));
+			}
+
+			for (double minThreshold : MIN_THRESHOLDS) {
+				BestMatches single = new BestMatches(local, remote, positions, positions.length, 10E-300);
+				long singleComparisons = 0;
+				for (int i = 0; i < positions.length; i++)
+					singleComparisons += kld.findSimilar(remoteWords, block[i], exacts[i], single, minThreshold);
+				BestMatches blocked = new BestMatches(local, remote, positions, positions.length, 10E-300);
+				long blockComparisons = kld.findSimilar(remoteWords, block, exacts, block.length, blocked, minThreshold);
+
+				String message = compare.getIdentity()+" round "+round+" > "+minThreshold;
+				assertEquals(message, single.matched, blocked.matched);
+				assertArrayEquals(message, single.similarities, blocked.similarities, 0.0);
+				assertArrayEquals(message, single.remoteProbabilities, blocked.remoteProbabilities, 0.0);
+				assertEquals(message, singleComparisons, blockComparisons);
+			}
+		}
+	}
+
+	// a word from a small alphabet, so that many words are similar and some are repeated
+	private static String word(Random random) {
+		int length = 3 + random.nextInt(6);
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			word.append("abcde".charAt(random.nextInt(5)));
+		return word.toString();
+	}
+
+	// writes the lines of a predicate file
+	private String write(String[] lines) throws IOException {
+		File file = folder.newFile();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		return file.getPath();
+	}
+
+}
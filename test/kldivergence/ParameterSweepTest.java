@@ -0,0 +1,54 @@
+package kldivergence;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import text.Dice;
+import text.JW;
+import text.StringCompare;
+
+/**
+ * Checks that a sweep gives each configuration the results a plain run with
+ * its settings gives, in the order the configurations were added.
+ */
+public class ParameterSweepTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sweepMatchesSeparateRuns() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(21), 4, 10, 150);
+		StringCompare dice = new Dice();
+		StringCompare jw = new JW();
+		// the metrics take turns, so grouping the work by metric would reorder the results
+		ParameterSweep sweep = new ParameterSweep();
+		sweep.setParallelism(2);
+		sweep.add(new ParameterSweep.Configuration(jw, 0, 0.99, 0.02, 2));
+		sweep.add(new ParameterSweep.Configuration(dice, 10, 0.85, 0.02, 0));
+		sweep.add(new ParameterSweep.Configuration(jw, 40, 0.95, 0.005, 5));
+		sweep.add(new ParameterSweep.Configuration(dice, 0, 0.99, 0.05, 2));
+		sweep.add(new ParameterSweep.Configuration(jw, 3, 0.81, 0.02, 0));
+
+		Map<ParameterSweep.Configuration, List<Results>> results = sweep.run(fixture.locals(), fixture.remotes());
+		assertEquals(sweep.getConfigurations(), new ArrayList<ParameterSweep.Configuration>(results.keySet()));
+		for (ParameterSweep.Configuration configuration : sweep.getConfigurations()) {
+			KLDivergence kld = new KLDivergence(configuration.compare);
+			kld.setLimit(configuration.limit);
+			kld.setStartingThreshold(configuration.thresholdStart);
+			kld.setThresholdStep(configuration.thresholdStep);
+			kld.setValidRequired(configuration.validRequired);
+			assertEquals(configuration.toString(), fixture.run(kld), results.get(configuration).toString());
+		}
+	}
+
+}
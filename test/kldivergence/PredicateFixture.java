@@ -0,0 +1,163 @@
+package kldivergence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import driver.Predicate;
+
+/**
+ * A small set of local and remote predicate files for checking the options of
+ * the algorithm against a plain run. Each remote predicate has words of its
+ * own, and each local predicate is a noisy copy of one of them, so the local
+ * predicates mostly have a clear best match ahead of a field of weaker ones.
+ */
+public class PredicateFixture {
+
+	// small enough that words from different predicates are often similar, large enough that
+	// a predicate shares clearly more trigrams with the one it was copied from than with others
+	private static final String ALPHABET = "abcdefghijklmnop";
+
+	private final File localDirectory;
+	private final File remoteDirectory;
+	private final List<String> localFiles = new ArrayList<String>();
+	private final List<String> remoteFiles = new ArrayList<String>();
+
+	/**
+	 * @param directory		Where the directories of local and remote predicate files are made.
+	 * @param random		Chooses the words.
+	 * @param locals		The number of local predicates.
+	 * @param remotes		The number of remote predicates (at least as many as locals).
+	 * @param localLines	The number of lines of each local predicate.
+	 */
+	public PredicateFixture(File directory, Random random, int locals, int remotes, int localLines) throws IOException {
+		localDirectory = new File(directory, "local");
+		remoteDirectory = new File(directory, "remote");
+		if (!localDirectory.mkdir() || !remoteDirectory.mkdir())
+			throw new IOException("Could not make the predicate directories in "+directory);
+		List<List<String>> vocabularies = new ArrayList<List<String>>();
+		for (int r = 0; r < remotes; r++) {
+			List<String> vocabulary = new ArrayList<String>();
+			for (int i = 0; i < 40; i++)
+				vocabulary.add(word(random));
+			vocabularies.add(vocabulary);
+			String[] lines = new String[60 + random.nextInt(60)];
+			for (int i = 0; i < lines.length; i++)
+				lines[i] = vocabulary.get(random.nextInt(vocabulary.size()));
+			remoteFiles.add(write(new File(remoteDirectory, "remote.r"+r), lines));
+		}
+		for (int l = 0; l < locals; l++) {
+			List<String> vocabulary = vocabularies.get(l);
+			String[] lines = new String[localLines];
+			for (int i = 0; i < lines.length; i++) {
+				int kind = random.nextInt(4);
+				if (kind == 0)
+					lines[i] = word(random);
+				else if (kind == 1)
+					lines[i] = typo(vocabulary.get(random.nextInt(vocabulary.size())), random);
+				else
+					lines[i] = vocabulary.get(random.nextInt(vocabulary.size()));
+			}
+			localFiles.add(write(new File(localDirectory, "local.l"+l), lines));
+		}
+	}
+
+	/**
+	 * @return		The directory of local predicate files, named local.l<i>.
+	 */
+	public File getLocalDirectory() {
+		return localDirectory;
+	}
+
+	/**
+	 * @return		The directory of remote predicate files, named remote.r<i>.
+	 */
+	public File getRemoteDirectory() {
+		return remoteDirectory;
+	}
+
+	/**
+	 * @return		New local predicates, read from their files.
+	 */
+	public List<Predicate> locals() {
+		return read(localFiles);
+	}
+
+	/**
+	 * @return		New remote predicates, read from their files.
+	 */
+	public List<Predicate> remotes() {
+		return read(remoteFiles);
+	}
+
+	/**
+	 * Matches every local predicate with an instance of the algorithm.
+	 *
+	 * @param kld		The algorithm, set up with the options to use.
+	 * @return			The results of each local predicate, as text with every value.
+	 */
+	public String run(KLDivergence kld) {
+		List<Predicate> remotes = remotes();
+		for (Predicate predicate : locals()) {
+			kld.select(predicate, remotes);
+			predicate.free();
+		}
+		return kld.getResults().toString();
+	}
+
+	/**
+	 * @param results	The results of a local predicate.
+	 * @return			The value of each remote predicate in the results, by name.
+	 */
+	public static Map<String, Double> values(Results results) {
+		Results.Sorted sorted = results.sort();
+		Map<String, Double> values = new LinkedHashMap<String, Double>();
+		for (int i = 0; i < sorted.size; i++)
+			values.put(sorted.predicates[i].toString(), sorted.values[i]);
+		return values;
+	}
+
+	private static List<Predicate> read(List<String> files) {
+		List<Predicate> predicates = new ArrayList<Predicate>(files.size());
+		for (String file : files)
+			predicates.add(new Predicate(file));
+		return predicates;
+	}
+
+	// a random word
+	private static String word(Random random) {
+		int length = 4 + random.nextInt(6);
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			word.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+		return word.toString();
+	}
+
+	// a word with one of its characters changed
+	private static String typo(String word, Random random) {
+		char[] chars = word.toCharArray();
+		chars[random.nextInt(chars.length)] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		return new String(chars);
+	}
+
+	private static String write(File file, String[] lines) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			for (String line : lines) {
+				out.write(line);
+				out.write('\n');
+			}
+		} finally {
+			out.close();
+		}
+		return file.getPath();
+	}
+
+}
@@ -0,0 +1,81 @@
+package kldivergence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import metrics.Metrics;
+import text.JW;
+
+/**
+ * Checks the MinHash prefilter against a plain run. The remote predicate each
+ * local predicate was copied from shares most of its text, so it is always
+ * scored, and is still the best match wherever the plain run found it. The
+ * remote predicates scored have the plain run's divergences, and some of the
+ * others are skipped.
+ */
+public class PrefilterTest {
+
+	private static final int LOCALS = 4;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void scoredPredicatesKeepTheirDivergences() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(16), LOCALS, 12, 150);
+		Metrics metrics = new Metrics();
+		for (double similarity : new double[] { 0.3, 0.5 }) {
+			// with one threshold pass, the remote predicates scored are scored at the same threshold
+			KLDivergence plain = new KLDivergence(new JW());
+			plain.setValidRequired(0);
+			fixture.run(plain);
+			KLDivergence filtered = new KLDivergence(new JW());
+			filtered.setValidRequired(0);
+			filtered.setPrefilter(similarity);
+			filtered.setMetrics(metrics);
+			fixture.run(filtered);
+
+			List<Results> plainResults = plain.getResults();
+			List<Results> filteredResults = filtered.getResults();
+			for (int i = 0; i < LOCALS; i++) {
+				Map<String, Double> all = PredicateFixture.values(plainResults.get(i));
+				Map<String, Double> kept = PredicateFixture.values(filteredResults.get(i));
+				String message = "similarity "+similarity+" local "+i;
+				assertTrue(message, kept.containsKey("remote.r"+i));
+				for (Map.Entry<String, Double> entry : kept.entrySet())
+					assertEquals(message+" "+entry.getKey(), all.get(entry.getKey()), entry.getValue(), 0.0);
+			}
+		}
+		assertTrue(metrics.getCount("remotesSkipped") > 0);
+	}
+
+	@Test
+	public void sourceIsStillTheBestMatch() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(16), LOCALS, 12, 150);
+		KLDivergence plain = new KLDivergence(new JW());
+		fixture.run(plain);
+		KLDivergence filtered = new KLDivergence(new JW());
+		filtered.setPrefilter(0.3);
+		fixture.run(filtered);
+
+		int found = 0;
+		for (int i = 0; i < LOCALS; i++) {
+			String source = "remote.r"+i;
+			if (plain.getResults().get(i).getTop(1).get(0).toString().equals(source)) {
+				assertEquals("local "+i, source, filtered.getResults().get(i).getTop(1).get(0).toString());
+				found++;
+			}
+		}
+		assertTrue(found > 0);
+	}
+
+}
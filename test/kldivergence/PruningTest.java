@@ -0,0 +1,67 @@
+package kldivergence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import metrics.Metrics;
+import text.Dice;
+import text.JW;
+import text.StringCompare;
+
+/**
+ * Checks that pruning only leaves out remote predicates: the best match and
+ * the divergence of every remote predicate kept are those of a plain run.
+ */
+public class PruningTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void jwPruningKeepsTheBest() throws IOException {
+		checkPruning(new JW());
+	}
+
+	@Test
+	public void dicePruningKeepsTheBest() throws IOException {
+		checkPruning(new Dice());
+	}
+
+	private void checkPruning(StringCompare compare) throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(9), 4, 12, 150);
+		Metrics metrics = new Metrics();
+		for (int validRequired : new int[] { 0, 2, 5 }) {
+			KLDivergence plain = new KLDivergence(compare);
+			plain.setValidRequired(validRequired);
+			fixture.run(plain);
+			KLDivergence pruning = new KLDivergence(compare);
+			pruning.setValidRequired(validRequired);
+			pruning.setPruning(true);
+			pruning.setMetrics(metrics);
+			fixture.run(pruning);
+
+			String message = compare.getIdentity()+" required "+validRequired;
+			List<Results> plainResults = plain.getResults();
+			List<Results> prunedResults = pruning.getResults();
+			for (int i = 0; i < plainResults.size(); i++) {
+				Map<String, Double> all = PredicateFixture.values(plainResults.get(i));
+				Map<String, Double> kept = PredicateFixture.values(prunedResults.get(i));
+				assertEquals(message, all.keySet().iterator().next(), kept.keySet().iterator().next());
+				for (Map.Entry<String, Double> entry : kept.entrySet())
+					assertEquals(message+" "+entry.getKey(), all.get(entry.getKey()), entry.getValue(), 0.0);
+			}
+		}
+		// and some remote predicates were left out
+		assertTrue(metrics.getCount("remotesPruned") > 0);
+	}
+
+}
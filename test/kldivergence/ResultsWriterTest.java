@@ -0,0 +1,123 @@
+package kldivergence;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import driver.Predicate;
+
+/**
+ * Checks that keeping only the best results with a capacity keeps exactly the
+ * start of the unbounded results, and that the writers state a match only for
+ * complete results with a valid best divergence.
+ */
+public class ResultsWriterTest {
+
+	private static final String NAMESPACE = "http://example.org/";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void capacityKeepsTheBestResults() throws IOException {
+		Random random = new Random(25);
+		Predicate local = predicate("local");
+		Predicate[] remotes = new Predicate[200];
+		for (int i = 0; i < remotes.length; i++)
+			remotes[i] = predicate("remote"+i);
+		for (int capacity : new int[] { 1, 2, 5, 50, 199, 200, 500 }) {
+			Results all = new Results(local);
+			Results best = new Results(local, capacity);
+			for (Predicate remote : remotes) {
+				// few distinct values, so there are ties to keep in the order they were added
+				double value = random.nextInt(4) == 0 ? Double.MAX_VALUE : random.nextInt(20) / 10.0;
+				all.add(remote, value);
+				best.add(remote, value);
+			}
+			Results.Sorted allSorted = all.sort();
+			Results.Sorted bestSorted = best.sort();
+			int size = Math.min(capacity, remotes.length);
+			assertEquals(size, bestSorted.size);
+			for (int i = 0; i < size; i++) {
+				assertEquals("capacity "+capacity, allSorted.predicates[i], bestSorted.predicates[i]);
+				assertEquals("capacity "+capacity, allSorted.values[i], bestSorted.values[i], 0.0);
+			}
+			assertEquals(all.getTop(size), best.getTop(size));
+		}
+	}
+
+	@Test
+	public void tsvWritesEveryResult() throws IOException {
+		Predicate local = predicate("local");
+		Results results = new Results(local);
+		results.add(predicate("b"), 0.5);
+		results.add(predicate("a"), 0.25);
+		results.add(predicate("c"), Double.MAX_VALUE);
+		File file = folder.newFile();
+		ResultsWriter writer = ResultsWriter.tsv(file);
+		writer.write(results);
+		writer.close();
+		assertArrayEquals(new String[] {
+				"local\ta\t0.25",
+				"local\tb\t0.5",
+				"local\tc\t"+Double.MAX_VALUE }, lines(file));
+	}
+
+	@Test
+	public void nTriplesOnlyStatesValidMatches() throws IOException {
+		Predicate match = predicate("match");
+		Predicate other = predicate("other");
+
+		Results valid = results("valid", 0.5, match, other);
+		Results partial = results("partial", 0.25, match, other);
+		partial.setPartial(true);
+		Results none = results("none", Double.MAX_VALUE, match, other);
+		Results one = results("one", 1.0, match, other);
+		Results nan = results("nan", Double.NaN, match, null);
+		Results empty = new Results(predicate("empty"));
+
+		File file = folder.newFile();
+		ResultsWriter writer = ResultsWriter.nTriples(file, NAMESPACE);
+		for (Results results : new Results[] { valid, partial, none, one, nan, empty })
+			writer.write(results);
+		writer.close();
+		assertArrayEquals(new String[] {
+				"<"+NAMESPACE+"valid> "+ResultsWriter.EQUIVALENT_PROPERTY+" <"+NAMESPACE+"match> .",
+				"# <"+NAMESPACE+"partial> has no match: the results are partial",
+				"# <"+NAMESPACE+"none> has no match: the best divergence is "+Double.MAX_VALUE,
+				"# <"+NAMESPACE+"one> has no match: the best divergence is 1.0",
+				"# <"+NAMESPACE+"nan> has no match: the best divergence is NaN" }, lines(file));
+	}
+
+	// the results of a local predicate whose best match is given, with another remote predicate after it
+	private Results results(String name, double best, Predicate match, Predicate other) throws IOException {
+		Results results = new Results(predicate(name));
+		if (other != null)
+			results.add(other, Double.MAX_VALUE);
+		results.add(match, best);
+		return results;
+	}
+
+	private Predicate predicate(String name) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		if (!file.exists())
+			Files.write(file.toPath(), "word\n".getBytes(StandardCharsets.UTF_8));
+		return new Predicate(file.getPath());
+	}
+
+	private static String[] lines(File file) throws IOException {
+		List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		return lines.toArray(new String[lines.size()]);
+	}
+
+}
@@ -0,0 +1,94 @@
+package kldivergence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import metrics.Metrics;
+import text.JW;
+import driver.Sampling;
+
+/**
+ * Checks sampling and adaptive mode against plain runs: a sample that takes
+ * every word changes nothing, taking the first words is the default, and an
+ * adaptive run finds the same best matches while recording each local
+ * predicate once.
+ */
+public class SamplingTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sampleOfEveryWordMatchesPlain() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(24), 3, 8, 120);
+		String plain = fixture.run(new KLDivergence(new JW()));
+		for (Sampling sampling : Sampling.values()) {
+			for (int limit : new int[] { 0, 10000 }) {
+				KLDivergence kld = new KLDivergence(new JW());
+				kld.setSampling(sampling);
+				kld.setSampleSeed(7);
+				kld.setLimit(limit);
+				assertEquals(sampling+" limit "+limit, plain, fixture.run(kld));
+			}
+		}
+	}
+
+	@Test
+	public void firstWordsAreTheDefault() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(24), 3, 8, 120);
+		KLDivergence plain = new KLDivergence(new JW());
+		plain.setLimit(40);
+		KLDivergence first = new KLDivergence(new JW());
+		first.setLimit(40);
+		first.setSampling(Sampling.FIRST);
+		assertEquals(fixture.run(plain), fixture.run(first));
+	}
+
+	@Test
+	public void adaptiveWithinOneSampleMatchesPlain() throws IOException {
+		// fewer words than the first sample, so the first round is the whole predicate
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(24), 3, 8, KLDivergence.ADAPTIVE_START);
+		KLDivergence adaptive = new KLDivergence(new JW());
+		adaptive.setAdaptive(true);
+		assertEquals(fixture.run(new KLDivergence(new JW())), fixture.run(adaptive));
+	}
+
+	@Test
+	public void adaptiveFindsTheSameBestMatches() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(24), 4, 10, 8 * KLDivergence.ADAPTIVE_START);
+		KLDivergence plain = new KLDivergence(new JW());
+		fixture.run(plain);
+		Metrics metrics = new Metrics();
+		KLDivergence adaptive = new KLDivergence(new JW());
+		adaptive.setAdaptive(true);
+		adaptive.setMetrics(metrics);
+		fixture.run(adaptive);
+
+		List<Results> plainResults = plain.getResults();
+		List<Results> adaptiveResults = adaptive.getResults();
+		assertEquals(plainResults.size(), adaptiveResults.size());
+		for (int i = 0; i < plainResults.size(); i++)
+			assertEquals(plainResults.get(i).getTop(1).toString(), adaptiveResults.get(i).getTop(1).toString());
+		// each local predicate is one select, however many rounds it took
+		assertEquals(plainResults.size(), metrics.getTimer("select").getCount());
+		assertTrue(metrics.getCount("adaptiveRounds") > plainResults.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void adaptiveNeedsARunnerUp() throws IOException {
+		PredicateFixture fixture = new PredicateFixture(folder.getRoot(), new Random(24), 1, 3, 120);
+		KLDivergence kld = new KLDivergence(new JW());
+		kld.setAdaptive(true);
+		kld.setResultsCapacity(1);
+		fixture.run(kld);
+	}
+
+}
@@ -0,0 +1,93 @@
+package text;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the bigram index against comparing the query with every word, over
+ * random words from a small alphabet so that words share many bigrams and
+ * repeat some of their own.
+ */
+public class BigramIndexTest {
+
+	private static final double[] MIN_SCORES = { 0.0, 0.3, 0.5, 0.7, 0.9 };
+
+	private final Dice dice = new Dice();
+
+	@Test
+	public void findAllMatchesBruteForce() {
+		Random random = new Random(18);
+		for (int round = 0; round < 20; round++) {
+			WordProfile[] words = words(random, 300);
+			BigramIndex.Searcher searcher = new BigramIndex(words).newSearcher();
+			for (int q = 0; q < 50; q++) {
+				WordProfile query = new WordProfile(word(random));
+				for (double minScore : MIN_SCORES) {
+					// the score of every word found, NaN for the words not found
+					double[] found = new double[words.length];
+					Arrays.fill(found, Double.NaN);
+					int count = searcher.findAll(query, minScore);
+					for (int i = 0; i < count; i++)
+						found[searcher.getResultId(i)] = searcher.getResultScore(i);
+					for (int w = 0; w < words.length; w++) {
+						double expected = dice.compare(query.getWord(), words[w].getWord());
+						String message = query+" / "+words[w]+" > "+minScore;
+						if (expected > minScore)
+							assertEquals(message, expected, found[w], 0.0);
+						else
+							assertEquals(message, Double.NaN, found[w], 0.0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void findBestMatchesBruteForce() {
+		Random random = new Random(19);
+		for (int round = 0; round < 20; round++) {
+			WordProfile[] words = words(random, 300);
+			BigramIndex.Searcher searcher = new BigramIndex(words).newSearcher();
+			for (int q = 0; q < 50; q++) {
+				WordProfile query = new WordProfile(word(random));
+				for (double minScore : MIN_SCORES) {
+					// the first word with the highest score wins a tie
+					int best = -1;
+					double bestScore = minScore;
+					for (int w = 0; w < words.length; w++) {
+						double value = dice.compare(query.getWord(), words[w].getWord());
+						if (value > bestScore) {
+							best = w;
+							bestScore = value;
+						}
+					}
+					int found = searcher.findBest(query, minScore);
+					assertEquals(query+" > "+minScore, best, found);
+					if (best >= 0)
+						assertEquals(query+" > "+minScore, bestScore, searcher.getScore(), 0.0);
+				}
+			}
+		}
+	}
+
+	// words of 0 to 11 characters, copied so that no two are the same object
+	private static WordProfile[] words(Random random, int count) {
+		WordProfile[] words = new WordProfile[count];
+		for (int w = 0; w < count; w++)
+			words[w] = new WordProfile(word(random));
+		return words;
+	}
+
+	private static String word(Random random) {
+		int length = random.nextInt(12);
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			word.append("abcde ".charAt(random.nextInt(6)));
+		return new String(word);
+	}
+
+}
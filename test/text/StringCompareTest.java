@@ -0,0 +1,68 @@
+package text;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the bounded comparisons give exactly the score of the full
+ * comparison whenever it reaches the minimum, and BELOW_MINIMUM otherwise.
+ */
+public class StringCompareTest {
+
+	private static final double[] MIN_SCORES = { 0.0, 0.3, 0.5, 0.7, 0.8, 0.9, 1.0 };
+
+	@Test
+	public void diceAtLeastMatchesCompare() {
+		checkAtLeast(new Dice(), new Random(18));
+	}
+
+	@Test
+	public void jwAtLeastMatchesCompare() {
+		checkAtLeast(new JW(), new Random(19));
+	}
+
+	private static void checkAtLeast(StringCompare compare, Random random) {
+		for (int pair = 0; pair < 20000; pair++) {
+			String word1 = word(random);
+			// half of the pairs are close to each other, so high minimums are reached
+			String word2 = random.nextBoolean() ? word(random) : change(word1, random);
+			WordProfile profile1 = new WordProfile(word1);
+			WordProfile profile2 = new WordProfile(word2);
+			double expected = compare.compare(word1, word2);
+			assertEquals(word1+" / "+word2, expected, compare.compare(profile1, profile2), 0.0);
+			for (double minScore : MIN_SCORES) {
+				double bounded = expected >= minScore ? expected : StringCompare.BELOW_MINIMUM;
+				String message = word1+" / "+word2+" >= "+minScore;
+				assertEquals(message, bounded, compare.compareAtLeast(word1, word2, minScore), 0.0);
+				assertEquals(message, bounded, compare.compareAtLeast(profile1, profile2, minScore), 0.0);
+			}
+		}
+	}
+
+	// a word of 0 to 11 characters from a small alphabet, so that words share many bigrams
+	private static String word(Random random) {
+		int length = random.nextInt(12);
+		StringBuilder word = new StringBuilder(length);
+		for (int i = 0; i < length; i++)
+			word.append("abcde ".charAt(random.nextInt(6)));
+		return word.toString();
+	}
+
+	// replaces, adds or drops a character of a word
+	private static String change(String word, Random random) {
+		StringBuilder changed = new StringBuilder(word);
+		int position = random.nextInt(word.length() + 1);
+		int kind = random.nextInt(3);
+		if (kind == 0 && position < word.length())
+			changed.setCharAt(position, "abcde ".charAt(random.nextInt(6)));
+		else if (kind == 1 || position == word.length())
+			changed.insert(position, "abcde ".charAt(random.nextInt(6)));
+		else
+			changed.deleteCharAt(position);
+		return changed.toString();
+	}
+
+}